@@ -0,0 +1,36 @@
+package ustin.fts.bench;
+
+import org.springframework.beans.factory.config.YamlPropertiesFactoryBean;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+import org.springframework.core.io.ClassPathResource;
+import ustin.fts.config.XmlConfig;
+import ustin.fts.config.XmlProperties;
+import ustin.fts.xml.plan.ExtractionPlan;
+
+/**
+ * План разбора из fts.xml в application.yaml - тот же, что собирает приложение
+ */
+final class BenchPlans {
+
+    private BenchPlans() {
+    }
+
+    /**
+     * @param goods true - товарные позиции включены (описание колонок из fts.xml.goods),
+     *              false - только поля fts.xml.fields, разбор с ранней остановкой
+     */
+    static ExtractionPlan fromApplicationYaml(boolean goods) {
+        var yaml = new YamlPropertiesFactoryBean();
+        yaml.setResources(new ClassPathResource("application.yaml"));
+        var properties = new Binder(new MapConfigurationPropertySource(yaml.getObject()))
+                .bind("fts.xml", XmlProperties.class)
+                .orElseThrow(() -> new IllegalStateException("fts.xml is not configured in application.yaml"));
+
+        var configured = properties.goods();
+        var goodsProperties = goods && configured != null
+                ? new XmlProperties.Goods(true, configured.element(), configured.columns())
+                : null;
+        return new XmlConfig().extractionPlan(new XmlProperties(properties.fields(), goodsProperties));
+    }
+}
@@ -0,0 +1,78 @@
+package ustin.fts.bench;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Генератор ESAD-подобных деклараций заданного размера.
+ * <p>
+ * Товарные позиции повторяются, пока документ не достигнет нужного размера,
+ * решение таможни записывается в конец, чтобы парсер дошел до последнего байта.
+ */
+final class EsadGenerator {
+
+    static final String NS_DECLARATIONS =
+            " xmlns=\"urn:customs.ru:Information:CustomsDocuments:ESADout_CU:5.17.0\""
+            + " xmlns:cat_ru=\"urn:customs.ru:CommonAggregateTypes:5.10.0\""
+            + " xmlns:catESAD_cu=\"urn:customs.ru:CUESADCommonAggregateTypesCust:5.17.0\""
+            + " xmlns:catESAD_ru=\"urn:customs.ru:RUESADCommonAggregateTypesCust:5.17.0\"";
+
+    private static final String[] COUNTRIES = {"CN", "DE", "TR", "IT", "KZ", "BY", "US", "JP"};
+
+    private EsadGenerator() {
+    }
+
+    /**
+     * @param targetBytes примерный размер документа
+     * @param layout      namespaced - все поля в ожидаемых namespace;
+     *                    fallback - namespace объявлены не на корне, поля находятся только по local name
+     */
+    static byte[] generate(int targetBytes, String layout) {
+        boolean fallback = "fallback".equals(layout);
+        var sb = new StringBuilder(targetBytes + 4096);
+
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<ESADout_CU").append(fallback ? "" : NS_DECLARATIONS).append(">\n");
+        sb.append("  <cat_ru:DocumentID").append(fallback ? " xmlns:cat_ru=\"urn:other\"" : "")
+                .append(">6f1c2a3e-0000-4000-8000-000000000000</cat_ru:DocumentID>\n");
+        sb.append("  <ESADout_CUGoodsShipment").append(fallback ? NS_DECLARATIONS : "").append(">\n");
+
+        int item = 0;
+        while (sb.length() < targetBytes || item == 0) {
+            item++;
+            var country = COUNTRIES[item % COUNTRIES.length];
+            sb.append("    <ESADout_CUGoods>\n")
+                    .append("      <catESAD_cu:GoodsNumeric>").append(item).append("</catESAD_cu:GoodsNumeric>\n")
+                    .append("      <catESAD_cu:GoodsDescription>Товар ").append(item)
+                    .append(" для бенчмарка разбора деклараций</catESAD_cu:GoodsDescription>\n")
+                    .append("      <catESAD_cu:GoodsTNVEDCode>84713000").append(item % 100 < 10 ? "0" : "")
+                    .append(item % 100).append("</catESAD_cu:GoodsTNVEDCode>\n")
+                    .append("      <catESAD_cu:OriginCountryCode>").append(country).append("</catESAD_cu:OriginCountryCode>\n")
+                    .append("      <catESAD_cu:GrossWeightQuantity>").append(item * 1.5).append("</catESAD_cu:GrossWeightQuantity>\n")
+                    .append("      <catESAD_cu:NetWeightQuantity>").append(item * 1.25).append("</catESAD_cu:NetWeightQuantity>\n")
+                    .append("      <catESAD_cu:InvoicedCost>").append(item * 100).append(".00</catESAD_cu:InvoicedCost>\n")
+                    .append("      <ESADout_CUPresentedDocument>\n")
+                    .append("        <cat_ru:PrDocumentName>Сертификат соответствия</cat_ru:PrDocumentName>\n")
+                    .append("        <cat_ru:PrDocumentNumber>ЕАЭС RU С-CN.АБ12.В.").append(10000 + item)
+                    .append("</cat_ru:PrDocumentNumber>\n")
+                    .append("        <cat_ru:PrDocumentDate>2024-03-").append(String.format("%02d", item % 28 + 1))
+                    .append("</cat_ru:PrDocumentDate>\n")
+                    .append("      </ESADout_CUPresentedDocument>\n")
+                    .append("    </ESADout_CUGoods>\n");
+        }
+
+        sb.append("    <ESADout_CUCustomsProcedure>\n")
+                .append("      <catESAD_ru:DecisionCode>10</catESAD_ru:DecisionCode>\n")
+                .append("      <catESAD_ru:DateInf>2024-04-01</catESAD_ru:DateInf>\n")
+                .append("    </ESADout_CUCustomsProcedure>\n");
+        sb.append("  </ESADout_CUGoodsShipment>\n");
+        sb.append("</ESADout_CU>\n");
+
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    static int parseSize(String size) {
+        if (size.endsWith("MB")) return Integer.parseInt(size.substring(0, size.length() - 2)) * 1024 * 1024;
+        if (size.endsWith("KB")) return Integer.parseInt(size.substring(0, size.length() - 2)) * 1024;
+        return Integer.parseInt(size);
+    }
+}
@@ -0,0 +1,91 @@
+package ustin.fts.bench;
+
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ustin.fts.xlsx.service.impl.XlsxServiceImpl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Загрузка реестра XLSX: DOM-модель XSSFWorkbook против потокового чтения листа
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+public class XlsxLoadBenchmark {
+
+    @Param({"100", "10000", "100000", "500000"})
+    public int rows;
+
+    private File file;
+    private XlsxServiceImpl xlsxService;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        xlsxService = new XlsxServiceImpl(1024);
+        file = Files.createTempFile("fts-bench-", ".xlsx").toFile();
+        try (var wb = new SXSSFWorkbook(100); var out = new FileOutputStream(file)) {
+            var sheet = wb.createSheet("Реестр");
+            var header = sheet.createRow(0);
+            String[] titles = {"№", "Наименование", "Код ТН ВЭД", "Страна", "Номер документа", "Дата документа", "Вес"};
+            for (int c = 0; c < titles.length; c++) {
+                header.createCell(c).setCellValue(titles[c]);
+            }
+            for (int r = 1; r <= rows; r++) {
+                var row = sheet.createRow(r);
+                row.createCell(0).setCellValue(r);
+                row.createCell(1).setCellValue("Товар " + r);
+                row.createCell(2).setCellValue("84713000" + (r % 90 + 10));
+                row.createCell(3).setCellValue(r % 2 == 0 ? "CN" : "DE");
+                row.createCell(4).setCellValue("ЕАЭС RU С-CN.АБ12.В." + (10000 + r));
+                row.createCell(5).setCellValue("2024-03-" + String.format("%02d", r % 28 + 1));
+                row.createCell(6).setCellValue(r * 1.5);
+            }
+            wb.write(out);
+            wb.dispose();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Benchmark
+    public int loadWorkbook() throws Exception {
+        var pkg = OPCPackage.open(file, PackageAccess.READ);
+        try {
+            return new XSSFWorkbook(pkg).getSheetAt(0).getPhysicalNumberOfRows();
+        } finally {
+            pkg.revert();
+        }
+    }
+
+    @Benchmark
+    public long readFirstSheet() {
+        try (var rows = xlsxService.readFirstSheet(file.toPath())) {
+            return rows.count();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package ustin.fts.bench;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import ustin.fts.xml.model.DTData;
+import ustin.fts.xml.model.Interners;
+import ustin.fts.xml.model.StringInterner;
+import ustin.fts.xml.service.impl.DomDtReference;
+import ustin.fts.xml.service.impl.XmlServiceImpl;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathFactory;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Разбор деклараций: потоковый parseXml против DOM-эталона ({@link DomDtReference})
+ * и поиск одного поля через getXmlValue.
+ * <p>
+ * Режимы Throughput и SampleTime дают пропускную способность и перцентили (p99),
+ * аллокации на операцию - профилировщик gc (включен в профиле jmh по умолчанию).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class XmlParseBenchmark {
+
+    @Param({"1KB", "100KB", "1MB", "10MB", "50MB"})
+    public String size;
+
+    @Param({"namespaced", "fallback"})
+    public String layout;
+
+    /**
+     * fields - только поля ДТ (ранняя остановка), goods - плюс все товарные позиции (чтение до конца)
+     */
+    @Param({"fields", "goods"})
+    public String plan;
+
+    private XmlServiceImpl service;
+    private byte[] xml;
+    private Document document;
+    private XPath xpath;
+
+    @Setup
+    public void setup() {
+        service = new XmlServiceImpl(BenchPlans.fromApplicationYaml("goods".equals(plan)),
+                new Interners(new StringInterner(10_000), new StringInterner(200_000)), new SimpleMeterRegistry());
+        xml = EsadGenerator.generate(EsadGenerator.parseSize(size), layout);
+        document = DomDtReference.parseDocument(xml);
+
+        var namespaces = Map.of(
+                "cat_ru", "urn:customs.ru:CommonAggregateTypes:5.10.0",
+                "catESAD_cu", "urn:customs.ru:CUESADCommonAggregateTypesCust:5.17.0",
+                "catESAD_ru", "urn:customs.ru:RUESADCommonAggregateTypesCust:5.17.0");
+        xpath = XPathFactory.newInstance().newXPath();
+        xpath.setNamespaceContext(new NamespaceContext() {
+            @Override
+            public String getNamespaceURI(String prefix) {
+                return namespaces.getOrDefault(prefix, "");
+            }
+
+            @Override
+            public String getPrefix(String uri) {
+                return null;
+            }
+
+            @Override
+            public Iterator<String> getPrefixes(String uri) {
+                return Collections.emptyIterator();
+            }
+        });
+    }
+
+    @Benchmark
+    public DTData parseXml() {
+        return service.parseXml(xml);
+    }
+
+    @Benchmark
+    public DTData parseXmlDom() {
+        return DomDtReference.parse(xml);
+    }
+
+    /**
+     * Поле в конце документа: в раскладке fallback XPath промахивается и срабатывает поиск по тегу
+     */
+    @Benchmark
+    public String getXmlValue() {
+        return DomDtReference.getXmlValue(document, xpath, "//catESAD_ru:DecisionCode", "DecisionCode");
+    }
+}
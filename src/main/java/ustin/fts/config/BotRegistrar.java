@@ -5,25 +5,33 @@ import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 import org.telegram.telegrambots.longpolling.TelegramBotsLongPollingApplication;
+import org.telegram.telegrambots.meta.api.methods.updates.DeleteWebhook;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.generics.TelegramClient;
 import ustin.fts.service.FTSBot;
 
 @Slf4j
 @Component
 @RequiredArgsConstructor
+@ConditionalOnProperty(name = "telegram.bot.mode", havingValue = "polling", matchIfMissing = true)
 public class BotRegistrar {
 
     @Value("${telegram.bot.token}")
     private String token;
 
     private final FTSBot ftsBot;
+    private final TelegramClient client;
     private TelegramBotsLongPollingApplication botsApplication;
 
     @PostConstruct
     public void register() {
         try {
+            // Пока у бота есть webhook, getUpdates отвечает ошибкой 409: снимаем его,
+            // ожидающие обновления остаются в очереди Telegram
+            client.execute(DeleteWebhook.builder().dropPendingUpdates(false).build());
             botsApplication = new TelegramBotsLongPollingApplication();
             botsApplication.registerBot(token, ftsBot);
             log.info("Bot registered successfully");
@@ -0,0 +1,65 @@
+package ustin.fts.config;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ustin.fts.service.UpdateDispatcher;
+import ustin.fts.service.UserStateService;
+import ustin.fts.service.jobs.JobScheduler;
+import ustin.fts.service.outbound.MessageSender;
+import ustin.fts.service.processing.DtCache;
+import ustin.fts.service.processing.FileStagingService;
+
+/**
+ * Показатели очередей и хранилищ. Таймеры этапов регистрируются по месту
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public MeterBinder ftsGauges(UserStateService sessions,
+                                 JobScheduler jobs,
+                                 UpdateDispatcher dispatcher,
+                                 MessageSender sender,
+                                 FileStagingService staging,
+                                 DtCache dtCache) {
+        return registry -> {
+            Gauge.builder("fts.sessions.active", sessions, UserStateService::getActiveUsersCount)
+                    .description("Открытые сессии /fts")
+                    .register(registry);
+
+            Gauge.builder("fts.jobs.queued", jobs, JobScheduler::getQueueSize)
+                    .description("Задачи /process в очереди")
+                    .register(registry);
+            Gauge.builder("fts.jobs.running", jobs, JobScheduler::getRunningCount)
+                    .description("Выполняющиеся задачи /process")
+                    .register(registry);
+
+            for (int i = 0; i < dispatcher.getStripeCount(); i++) {
+                int stripe = i;
+                Gauge.builder("fts.updates.queue.depth", dispatcher, d -> d.getQueueDepth(stripe))
+                        .description("Обновления, ожидающие обработки в полосе")
+                        .tag("stripe", String.valueOf(stripe))
+                        .register(registry);
+            }
+
+            Gauge.builder("fts.outbound.queue.size", sender, MessageSender::getQueueSize)
+                    .description("Исходящие сообщения в очереди")
+                    .register(registry);
+
+            Gauge.builder("fts.staging.bytes", staging, FileStagingService::getGlobalUsed)
+                    .description("Объем скачанных и еще не освобожденных файлов")
+                    .baseUnit("bytes")
+                    .register(registry);
+
+            Gauge.builder("fts.dtcache.size", dtCache, DtCache::size)
+                    .register(registry);
+            FunctionCounter.builder("fts.dtcache.hits", dtCache, DtCache::getHits)
+                    .register(registry);
+            FunctionCounter.builder("fts.dtcache.misses", dtCache, DtCache::getMisses)
+                    .register(registry);
+        };
+    }
+}
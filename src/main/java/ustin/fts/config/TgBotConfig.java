@@ -2,12 +2,17 @@ package ustin.fts.config;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.telegram.telegrambots.client.okhttp.OkHttpTelegramClient;
 import org.telegram.telegrambots.meta.generics.TelegramClient;
 
+import java.util.concurrent.TimeUnit;
+
 @Slf4j
 @Configuration
 @RequiredArgsConstructor
@@ -16,8 +21,26 @@ public class TgBotConfig {
     @Value("${telegram.bot.token}")
     private String token;
 
+    @Value("${fts.download.concurrency:8}")
+    private int downloadConcurrency;
+
+    /**
+     * Один OkHttpClient на все запросы к API и скачивание файлов:
+     * соединения с api.telegram.org переиспользуются без повторного TLS-рукопожатия
+     */
+    @Bean
+    public OkHttpClient telegramHttpClient() {
+        var dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(Math.max(64, downloadConcurrency * 2));
+        dispatcher.setMaxRequestsPerHost(Math.max(5, downloadConcurrency + 4));
+        return new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(downloadConcurrency + 4, 5, TimeUnit.MINUTES))
+                .build();
+    }
+
     @Bean
-    public TelegramClient telegramClient() {
-        return new OkHttpTelegramClient(token);
+    public TelegramClient telegramClient(OkHttpClient telegramHttpClient) {
+        return new OkHttpTelegramClient(telegramHttpClient, token);
     }
 }
@@ -0,0 +1,59 @@
+package ustin.fts.config;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.methods.updates.SetWebhook;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.generics.TelegramClient;
+
+/**
+ * Регистрация webhook в Telegram при старте в режиме webhook.
+ * С telegram.bot.webhook.register: false регистрация пропускается -
+ * для локальной проверки, когда обновления отправляются на endpoint вручную.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "telegram.bot.mode", havingValue = "webhook")
+public class WebhookRegistrar {
+
+    private final TelegramClient client;
+
+    @Value("${telegram.bot.webhook.url:}")
+    private String url;
+
+    @Value("${telegram.bot.webhook.secret}")
+    private String secret;
+
+    @Value("${telegram.bot.webhook.max-connections:40}")
+    private int maxConnections;
+
+    @Value("${telegram.bot.webhook.register:true}")
+    private boolean register;
+
+    @PostConstruct
+    public void register() {
+        if (!register) {
+            log.info("Webhook registration skipped");
+            return;
+        }
+        if (url.isBlank()) {
+            throw new IllegalStateException("telegram.bot.webhook.url is required in webhook mode");
+        }
+        try {
+            client.execute(SetWebhook.builder()
+                    .url(url)
+                    .secretToken(secret)
+                    .maxConnections(maxConnections)
+                    .build());
+            log.info("Webhook registered: {}", url);
+        } catch (TelegramApiException e) {
+            log.error("Failed to register webhook", e);
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package ustin.fts.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ustin.fts.xml.model.DTProperty;
+import ustin.fts.xml.model.GoodsColumn;
+import ustin.fts.xml.model.Interners;
+import ustin.fts.xml.model.StringInterner;
+import ustin.fts.xml.plan.ExtractionPlan;
+import ustin.fts.xml.plan.FieldSpec;
+import ustin.fts.xml.plan.GoodsSpec;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Slf4j
+@Configuration
+@EnableConfigurationProperties(XmlProperties.class)
+public class XmlConfig {
+
+    /**
+     * План разбора компилируется один раз при старте и переиспользуется для всех файлов
+     */
+    @Bean
+    public ExtractionPlan extractionPlan(XmlProperties properties) {
+        if (properties.fields() == null || properties.fields().isEmpty()) {
+            throw new IllegalStateException("fts.xml.fields is not configured");
+        }
+
+        var specs = properties.fields().stream()
+                .map(this::toSpec)
+                .toList();
+        var goods = toGoodsSpec(properties.goods());
+        var plan = ExtractionPlan.compile(specs, goods);
+        log.info("XML extraction plan compiled: {} fields, goods items: {}",
+                plan.size(), goods != null ? goods.element() : "disabled");
+        return plan;
+    }
+
+    /**
+     * Пулы строк общие для всех разборов; при переполнении вытесняются давно не встречавшиеся значения
+     */
+    @Bean
+    public Interners interners(@Value("${fts.xml.intern.codes:10000}") int codes,
+                               @Value("${fts.xml.intern.document-numbers:200000}") int documentNumbers) {
+        return new Interners(new StringInterner(codes), new StringInterner(documentNumbers));
+    }
+
+    private GoodsSpec toGoodsSpec(XmlProperties.Goods goods) {
+        if (goods == null || !goods.enabled()) {
+            return null;
+        }
+        Map<String, GoodsColumn> columns = new HashMap<>();
+        for (var column : goods.columns()) {
+            columns.put(column.localName(), GoodsColumn.of(column.column()));
+        }
+        return new GoodsSpec(goods.element(), columns);
+    }
+
+    private FieldSpec toSpec(XmlProperties.Field field) {
+        var fallbacks = field.fallbacks() != null ? field.fallbacks() : List.of(field.localName());
+        return new FieldSpec(
+                field.name(),
+                field.prefix(),
+                field.namespace(),
+                field.localName(),
+                fallbacks,
+                DTProperty.of(field.property()));
+    }
+}
@@ -0,0 +1,39 @@
+package ustin.fts.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.List;
+
+/**
+ * Описание полей, извлекаемых из XML декларации (fts.xml.fields)
+ */
+@ConfigurationProperties(prefix = "fts.xml")
+public record XmlProperties(List<Field> fields, Goods goods) {
+
+    /**
+     * @param fallbacks если не задан, используется local-name самого поля
+     * @param property  имя свойства DTData
+     */
+    public record Field(String name,
+                        String prefix,
+                        String namespace,
+                        String localName,
+                        List<String> fallbacks,
+                        String property) {
+    }
+
+    /**
+     * Товарные позиции (fts.xml.goods)
+     *
+     * @param element local name элемента одной позиции
+     */
+    public record Goods(boolean enabled, String element, List<Column> columns) {
+    }
+
+    /**
+     * @param column    имя колонки GoodsItems (itemNumber, originCountryCode, ...)
+     * @param localName local name элемента внутри позиции
+     */
+    public record Column(String column, String localName) {
+    }
+}
@@ -5,17 +5,25 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.telegram.telegrambots.longpolling.util.LongPollingSingleThreadUpdateConsumer;
 import org.telegram.telegrambots.meta.api.objects.Update;
-import ustin.fts.service.handlers.Handler;
 
+/**
+ * Получает обновления long polling и передает их диспетчеру.
+ * Поток опроса не ждет обработки: она идет в полосах {@link UpdateDispatcher}
+ */
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class FTSBot implements LongPollingSingleThreadUpdateConsumer {
 
-    private final Handler handler;
+    private final UpdateDispatcher dispatcher;
 
     @Override
     public void consume(Update update) {
-        handler.handle(update);
+        try {
+            dispatcher.dispatch(update);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Update {} dropped on shutdown", update.getUpdateId());
+        }
     }
 }
@@ -0,0 +1,192 @@
+package ustin.fts.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Потокобезопасная хеш-таблица с ключами long без упаковки в Long.
+ * <p>
+ * Открытая адресация с линейным пробированием, удаление со сдвигом назад
+ * (без "надгробий"). Все операции под монитором таблицы: доступ к сессиям
+ * редкий относительно обработки файлов, важнее компактность.
+ */
+final class LongKeyMap<V> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private Object[] values;   // null - свободная ячейка
+    private int size;
+
+    LongKeyMap() {
+        keys = new long[MIN_CAPACITY];
+        values = new Object[MIN_CAPACITY];
+    }
+
+    @FunctionalInterface
+    interface EntryPredicate<V> {
+        boolean test(long key, V value);
+    }
+
+    synchronized V get(long key) {
+        int i = indexOf(key);
+        return i >= 0 ? value(i) : null;
+    }
+
+    synchronized V computeIfAbsent(long key, LongFunction<V> factory) {
+        int i = indexOf(key);
+        if (i >= 0) return value(i);
+        var value = factory.apply(key);
+        insert(key, value);
+        return value;
+    }
+
+    synchronized V remove(long key) {
+        int i = indexOf(key);
+        if (i < 0) return null;
+        var removed = value(i);
+        delete(i);
+        shrink();
+        return removed;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Удалить записи, подходящие под условие
+     *
+     * @return удаленные ключи
+     */
+    synchronized List<Long> removeIf(EntryPredicate<V> predicate) {
+        List<Long> removed = new ArrayList<>();
+        for (int i = 0; i < values.length; ) {
+            if (values[i] != null && predicate.test(keys[i], value(i))) {
+                removed.add(keys[i]);
+                // На место i может сдвинуться другая запись - проверяем ту же ячейку еще раз
+                delete(i);
+            } else {
+                i++;
+            }
+        }
+        shrink();
+        return removed;
+    }
+
+    /**
+     * Ключ записи с минимальной оценкой или null для пустой таблицы
+     */
+    synchronized Long minBy(ToLongFunction<V> score) {
+        Long best = null;
+        long bestScore = Long.MAX_VALUE;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) continue;
+            var s = score.applyAsLong(value(i));
+            if (best == null || s < bestScore) {
+                best = keys[i];
+                bestScore = s;
+            }
+        }
+        return best;
+    }
+
+    synchronized List<Long> keys() {
+        List<Long> result = new ArrayList<>(size);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) result.add(keys[i]);
+        }
+        return result;
+    }
+
+    synchronized List<V> values() {
+        List<V> result = new ArrayList<>(size);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) result.add(value(i));
+        }
+        return result;
+    }
+
+    synchronized void clear() {
+        keys = new long[MIN_CAPACITY];
+        values = new Object[MIN_CAPACITY];
+        size = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V value(int i) {
+        return (V) values[i];
+    }
+
+    private int indexOf(long key) {
+        int mask = values.length - 1;
+        for (int i = slot(key, mask); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) return i;
+        }
+        return -1;
+    }
+
+    private void insert(long key, V value) {
+        if ((size + 1) * 4 > values.length * 3) {
+            resize(values.length * 2);
+        }
+        int mask = values.length - 1;
+        int i = slot(key, mask);
+        while (values[i] != null) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        size++;
+    }
+
+    private void delete(int i) {
+        int mask = values.length - 1;
+        // Сдвигаем назад записи цепочки, чтобы поиск не обрывался на дыре
+        int hole = i;
+        for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+            int home = slot(keys[j], mask);
+            boolean movable = hole <= j ? (home <= hole || home > j) : (home <= hole && home > j);
+            if (movable) {
+                keys[hole] = keys[j];
+                values[hole] = values[j];
+                hole = j;
+            }
+        }
+        values[hole] = null;
+        size--;
+    }
+
+    private void shrink() {
+        int capacity = values.length;
+        while (capacity > MIN_CAPACITY && size * 8 < capacity) {
+            capacity /= 2;
+        }
+        if (capacity != values.length) {
+            resize(capacity);
+        }
+    }
+
+    private void resize(int capacity) {
+        var oldKeys = keys;
+        var oldValues = values;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        size = 0;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                @SuppressWarnings("unchecked") var value = (V) oldValues[i];
+                insert(oldKeys[i], value);
+            }
+        }
+    }
+
+    private static int slot(long key, int mask) {
+        // Перемешивание битов (финализатор SplitMix64): chatId часто идут подряд
+        key = (key ^ (key >>> 33)) * 0xff51afd7ed558ccdL;
+        key = (key ^ (key >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return (int) (key ^ (key >>> 33)) & mask;
+    }
+}
@@ -0,0 +1,12 @@
+package ustin.fts.service;
+
+/**
+ * Файл, принятый от пользователя
+ *
+ * @param fileId       ID для скачивания (может меняться между сессиями)
+ * @param fileUniqueId постоянный ID содержимого файла в Telegram
+ * @param type         расширение файла (xlsx, xml)
+ * @param size         размер в байтах по данным Telegram, 0 если неизвестен
+ */
+public record ReceivedFile(String fileId, String fileUniqueId, String type, long size) {
+}
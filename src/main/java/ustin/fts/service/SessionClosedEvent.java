@@ -0,0 +1,8 @@
+package ustin.fts.service;
+
+/**
+ * Сессия пользователя завершена (/cancel, успешный /process или удаление состояния).
+ * Слушатели освобождают связанные с чатом ресурсы
+ */
+public record SessionClosedEvent(Long chatId) {
+}
@@ -0,0 +1,346 @@
+package ustin.fts.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.zip.CRC32C;
+
+/**
+ * Журнал изменений сессий для восстановления после перезапуска.
+ * <p>
+ * Изменения кодируются в буфер в памяти. Фоновый поток раз в
+ * fts.journal.flush-interval-ms дописывает его в файл journal и делает fsync,
+ * поэтому обработка обновлений не ждет диска; при аварии теряются
+ * изменения последнего интервала. Когда журнал превышает fts.journal.compact-bytes,
+ * текущие сессии записываются в snapshot, а журнал обнуляется.
+ * <p>
+ * Запись: длина (int), CRC32C (int), тело. Чтение останавливается на первой
+ * неполной или поврежденной записи. Повторное применение записей безопасно,
+ * поэтому сбой между записью snapshot и очисткой журнала ничего не портит.
+ */
+@Slf4j
+@Component
+public class SessionJournal {
+
+    private static final byte OP_START = 1;
+    private static final byte OP_FILE = 2;
+    private static final byte OP_REMOVE = 3;
+    private static final int HEADER_BYTES = 8;
+
+    private final boolean enabled;
+    private final Path directory;
+    private final long flushIntervalMs;
+    private final long compactBytes;
+
+    private final Object appendLock = new Object();
+    private final Object ioLock = new Object();
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream(64 * 1024);
+    private FileChannel journal;
+    private Supplier<Collection<UserState>> snapshotSource;
+    private Thread flusher;
+    // Прерывание потока закрыло бы FileChannel посреди записи, поэтому остановка через latch
+    private final CountDownLatch stopping = new CountDownLatch(1);
+
+    /**
+     * Получатель записей при восстановлении
+     */
+    public interface Replay {
+        void start(long chatId, String command, int expectedFiles, List<String> fileTypes);
+
+        void file(long chatId, ReceivedFile file);
+
+        void remove(long chatId);
+    }
+
+    public SessionJournal(@Value("${fts.journal.enabled:true}") boolean enabled,
+                          @Value("${fts.journal.directory:data}") Path directory,
+                          @Value("${fts.journal.flush-interval-ms:200}") long flushIntervalMs,
+                          @Value("${fts.journal.compact-bytes:16777216}") long compactBytes) {
+        this.enabled = enabled;
+        this.directory = directory;
+        this.flushIntervalMs = flushIntervalMs;
+        this.compactBytes = compactBytes;
+    }
+
+    /**
+     * Восстановить сессии из snapshot и журнала, затем начать запись.
+     *
+     * @param snapshotSource текущие сессии для сжатия журнала
+     */
+    public void open(Replay replay, Supplier<Collection<UserState>> snapshotSource) {
+        if (!enabled) return;
+        this.snapshotSource = snapshotSource;
+        try {
+            Files.createDirectories(directory);
+            var started = System.nanoTime();
+            var records = read(snapshotPath(), replay, false) + read(journalPath(), replay, true);
+            log.info("Session journal replayed: {} records in {} ms",
+                    records, (System.nanoTime() - started) / 1_000_000);
+
+            journal = FileChannel.open(journalPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            journal.position(journal.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open session journal in " + directory, e);
+        }
+        flusher = Thread.ofVirtual().name("session-journal").start(this::flushLoop);
+    }
+
+    public void logStart(long chatId, String command, int expectedFiles, List<String> fileTypes) {
+        append(OP_START, chatId, out -> writeStart(out, command, expectedFiles, fileTypes));
+    }
+
+    public void logFile(long chatId, ReceivedFile file) {
+        append(OP_FILE, chatId, out -> writeFile(out, file));
+    }
+
+    public void logRemove(long chatId) {
+        append(OP_REMOVE, chatId, out -> {
+        });
+    }
+
+    @PreDestroy
+    public void close() {
+        if (flusher == null) return;
+        stopping.countDown();
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            flush();
+            journal.close();
+        } catch (IOException e) {
+            log.error("Failed to close session journal", e);
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            try {
+                if (stopping.await(flushIntervalMs, TimeUnit.MILLISECONDS)) return;
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                flush();
+                if (journal.size() > compactBytes) {
+                    compact();
+                }
+            } catch (IOException e) {
+                log.error("Session journal write failed", e);
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        synchronized (ioLock) {
+            ByteArrayOutputStream batch;
+            synchronized (appendLock) {
+                if (pending.size() == 0) return;
+                batch = pending;
+                pending = new ByteArrayOutputStream(64 * 1024);
+            }
+            var buffer = ByteBuffer.wrap(batch.toByteArray());
+            while (buffer.hasRemaining()) {
+                journal.write(buffer);
+            }
+            journal.force(false);
+        }
+    }
+
+    /**
+     * Записать текущие сессии в snapshot и обнулить журнал
+     */
+    private void compact() throws IOException {
+        synchronized (ioLock) {
+            List<UserState> states;
+            synchronized (appendLock) {
+                // Изменения из буфера уже видны в сессиях
+                pending = new ByteArrayOutputStream(64 * 1024);
+                states = new ArrayList<>(snapshotSource.get());
+            }
+
+            var tmp = directory.resolve("sessions.snapshot.tmp");
+            try (var channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                var out = new ByteArrayOutputStream(states.size() * 128);
+                for (var state : states) {
+                    writeRecord(out, OP_START, state.getChatId(), body -> writeStart(body,
+                            state.getCurrentCommand(), state.getExpectedFiles(), state.getExpectedFileTypes()));
+                    for (var file : state.getReceivedFiles()) {
+                        writeRecord(out, OP_FILE, state.getChatId(), body -> writeFile(body, file));
+                    }
+                }
+                var buffer = ByteBuffer.wrap(out.toByteArray());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(tmp, snapshotPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            journal.truncate(0);
+            journal.position(0);
+            journal.force(true);
+            log.info("Session journal compacted: {} sessions", states.size());
+        }
+    }
+
+    private void append(byte op, long chatId, Body body) {
+        if (journal == null) return;
+        synchronized (appendLock) {
+            try {
+                writeRecord(pending, op, chatId, body);
+            } catch (IOException e) {
+                // ByteArrayOutputStream не бросает IOException
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static void writeRecord(ByteArrayOutputStream target, byte op, long chatId, Body body) throws IOException {
+        var bytes = new ByteArrayOutputStream(64);
+        var out = new DataOutputStream(bytes);
+        out.writeByte(op);
+        out.writeLong(chatId);
+        body.write(out);
+        out.flush();
+
+        var record = bytes.toByteArray();
+        var crc = new CRC32C();
+        crc.update(record);
+        var header = ByteBuffer.allocate(HEADER_BYTES).putInt(record.length).putInt((int) crc.getValue());
+        target.write(header.array());
+        target.write(record);
+    }
+
+    private static void writeStart(DataOutputStream out, String command, int expectedFiles, List<String> types)
+            throws IOException {
+        writeString(out, command);
+        out.writeInt(expectedFiles);
+        out.writeShort(types.size());
+        for (var type : types) {
+            writeString(out, type);
+        }
+    }
+
+    private static void writeFile(DataOutputStream out, ReceivedFile file) throws IOException {
+        writeString(out, file.fileId());
+        writeString(out, file.fileUniqueId());
+        writeString(out, file.type());
+        out.writeLong(file.size());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeShort(-1);
+            return;
+        }
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getShort();
+        if (length < 0) return null;
+        var bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Прочитать файл записей через отображение в память
+     *
+     * @param truncateTail обрезать файл по последней целой записи
+     * @return число примененных записей
+     */
+    private int read(Path path, Replay replay, boolean truncateTail) throws IOException {
+        if (!Files.exists(path)) return 0;
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            var crc = new CRC32C();
+            int records = 0;
+            while (data.remaining() >= HEADER_BYTES) {
+                int start = data.position();
+                int length = data.getInt();
+                int checksum = data.getInt();
+                if (length <= 0 || length > data.remaining()) {
+                    data.position(start);
+                    break;
+                }
+                var record = data.slice(data.position(), length);
+                crc.reset();
+                crc.update(record.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    data.position(start);
+                    break;
+                }
+                apply(record, replay);
+                data.position(data.position() + length);
+                records++;
+            }
+            if (data.hasRemaining()) {
+                log.warn("Session journal {} has a damaged tail at {}, ignoring {} bytes",
+                        path.getFileName(), data.position(), data.remaining());
+                if (truncateTail) {
+                    channel.truncate(data.position());
+                }
+            }
+            return records;
+        }
+    }
+
+    private void apply(ByteBuffer in, Replay replay) {
+        var op = in.get();
+        var chatId = in.getLong();
+        switch (op) {
+            case OP_START -> {
+                var command = readString(in);
+                var expected = in.getInt();
+                int count = in.getShort();
+                List<String> types = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    types.add(readString(in));
+                }
+                replay.start(chatId, command, expected, types);
+            }
+            case OP_FILE -> replay.file(chatId,
+                    new ReceivedFile(readString(in), readString(in), readString(in), in.getLong()));
+            case OP_REMOVE -> replay.remove(chatId);
+            default -> log.warn("Unknown session journal record {}", op);
+        }
+    }
+
+    private Path journalPath() {
+        return directory.resolve("sessions.journal");
+    }
+
+    private Path snapshotPath() {
+        return directory.resolve("sessions.snapshot");
+    }
+}
@@ -0,0 +1,242 @@
+package ustin.fts.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Отсев повторно доставленных обновлений.
+ * <p>
+ * Отметка (watermark) - update_id, до которого включительно все обновления обработаны.
+ * Обновления выше нее хранятся в окне из fts.dedup.capacity ячеек (ячейка - id по модулю
+ * размера окна) вместе с числом незавершенных удержаний: обновление регистрируется
+ * при постановке в очередь диспетчера и считается обработанным, когда сняты все
+ * удержания (обработчик и, например, задача /process). Отметка сдвигается только
+ * по непрерывной последовательности обработанных id, поэтому обновление, застрявшее
+ * в медленной полосе, не теряется при перезапуске. Пропуск в нумерации ждет
+ * fts.dedup.gap-timeout-ms: при нескольких соединениях webhook обновления приходят
+ * не по порядку.
+ * <p>
+ * Отметка периодически сохраняется на диск, и после перезапуска повторы обработанных
+ * обновлений отбрасываются сразу. Если id пошел назад после долгого простоя или далеко
+ * за пределы окна, Telegram начал нумерацию заново: окно сбрасывается, а обновление принимается.
+ */
+@Slf4j
+@Component
+public class UpdateDeduplicator {
+
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final Path checkpointFile;
+    private final long gapTimeoutMs;
+    private final long resetIdleMs;
+    private final long[] ids;       // id в ячейке id % размер окна, NONE - не получено
+    private final int[] holders;    // незавершенные удержания, 0 - обработано
+    private volatile long watermark = NONE;
+    private long savedWatermark = NONE;
+    private long maxSeen = NONE;
+    private long lastActivityAt;
+    private long gapSince = NONE;   // с какого момента отметка стоит перед пропуском в нумерации
+
+    public UpdateDeduplicator(@Value("${fts.dedup.capacity:65536}") int capacity,
+                              @Value("${fts.dedup.checkpoint-file:data/update-offset}") Path checkpointFile,
+                              @Value("${fts.dedup.gap-timeout-ms:30000}") long gapTimeoutMs,
+                              @Value("${fts.dedup.reset-idle-hours:24}") long resetIdleHours) {
+        this.checkpointFile = checkpointFile;
+        this.gapTimeoutMs = gapTimeoutMs;
+        this.resetIdleMs = Duration.ofHours(resetIdleHours).toMillis();
+        this.ids = new long[Math.max(16, capacity)];
+        this.holders = new int[ids.length];
+        this.lastActivityAt = System.currentTimeMillis();
+        Arrays.fill(ids, NONE);
+    }
+
+    @PostConstruct
+    public void load() {
+        try {
+            if (Files.exists(checkpointFile)) {
+                var value = ByteBuffer.wrap(Files.readAllBytes(checkpointFile)).getLong();
+                synchronized (this) {
+                    watermark = value;
+                    savedWatermark = value;
+                    // Отметка сохраняется, только когда сдвигается: время файла - последняя активность
+                    lastActivityAt = Files.getLastModifiedTime(checkpointFile).toMillis();
+                }
+                log.info("Update checkpoint loaded: {}", value);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to read update checkpoint {}, starting without it", checkpointFile, e);
+        }
+    }
+
+    /**
+     * Зарегистрировать обновление с одним удержанием
+     *
+     * @return false, если обновление уже было получено
+     */
+    public boolean firstSeen(long updateId) {
+        return firstSeen(updateId, System.currentTimeMillis());
+    }
+
+    synchronized boolean firstSeen(long updateId, long now) {
+        var idle = now - lastActivityAt;
+        lastActivityAt = now;
+        if (watermark == NONE) {
+            watermark = updateId - 1;
+        }
+
+        if (updateId <= watermark) {
+            if (watermark - updateId < ids.length && idle < resetIdleMs) {
+                return false;
+            }
+            log.warn("Update id went back from {} to {} after {} ms idle, dedup window reset",
+                    watermark, updateId, idle);
+            reset(updateId - 1);
+        } else if (updateId - watermark > ids.length) {
+            slide(updateId - ids.length);
+        }
+
+        int i = index(updateId);
+        if (ids[i] == updateId) {
+            return false;
+        }
+        ids[i] = updateId;
+        holders[i] = 1;
+        maxSeen = Math.max(maxSeen, updateId);
+        return true;
+    }
+
+    /**
+     * Добавить удержание: обновление не будет считаться обработанным,
+     * пока для него не вызван лишний {@link #markDone(long)}
+     */
+    public synchronized void retain(long updateId) {
+        int i = index(updateId);
+        if (ids[i] == updateId && holders[i] > 0) {
+            holders[i]++;
+        }
+    }
+
+    /**
+     * Снять удержание; обновление обработано, когда удержаний не осталось
+     */
+    public synchronized void markDone(long updateId) {
+        int i = index(updateId);
+        if (ids[i] == updateId && holders[i] > 0) {
+            holders[i]--;
+        }
+    }
+
+    /**
+     * Забыть обновление, которое не удалось поставить в очередь: повторная доставка будет принята
+     */
+    public synchronized void forget(long updateId) {
+        int i = index(updateId);
+        if (ids[i] == updateId) {
+            ids[i] = NONE;
+            holders[i] = 0;
+        }
+    }
+
+    /**
+     * Сдвинуть отметку по обработанным обновлениям и сохранить ее
+     */
+    @Scheduled(fixedDelayString = "${fts.dedup.checkpoint-interval-ms:1000}")
+    public void checkpoint() {
+        checkpoint(System.currentTimeMillis());
+    }
+
+    void checkpoint(long now) {
+        long value;
+        synchronized (this) {
+            advance(now);
+            value = watermark;
+            if (value == NONE || value == savedWatermark) return;
+        }
+        save(value);
+    }
+
+    public long getWatermark() {
+        return watermark;
+    }
+
+    @PreDestroy
+    public void close() {
+        checkpoint();
+    }
+
+    private void advance(long now) {
+        while (maxSeen != NONE && watermark < maxSeen) {
+            long next = watermark + 1;
+            int i = index(next);
+            if (ids[i] == next) {
+                if (holders[i] > 0) return;
+                gapSince = NONE;
+            } else {
+                // Пропуск в нумерации: обновление может еще прийти по другому соединению
+                if (gapSince == NONE) gapSince = now;
+                if (now - gapSince < gapTimeoutMs) return;
+            }
+            watermark = next;
+        }
+    }
+
+    /**
+     * Обновление ушло дальше окна: отметка принудительно подтягивается,
+     * незавершенные обновления позади нее больше не отслеживаются
+     */
+    private void slide(long target) {
+        int pending = 0;
+        for (long id = watermark + 1; id <= target; id++) {
+            int i = index(id);
+            if (ids[i] == id) {
+                if (holders[i] > 0) pending++;
+                ids[i] = NONE;
+                holders[i] = 0;
+            }
+        }
+        if (pending > 0) {
+            log.warn("Dedup window overflow: watermark moved from {} to {}, {} updates still in progress",
+                    watermark, target, pending);
+        }
+        watermark = target;
+        gapSince = NONE;
+    }
+
+    private void reset(long target) {
+        Arrays.fill(ids, NONE);
+        Arrays.fill(holders, 0);
+        watermark = target;
+        maxSeen = NONE;
+        gapSince = NONE;
+    }
+
+    private void save(long value) {
+        try {
+            Files.createDirectories(checkpointFile.toAbsolutePath().getParent());
+            var tmp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+            Files.write(tmp, ByteBuffer.allocate(Long.BYTES).putLong(value).array());
+            Files.move(tmp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            synchronized (this) {
+                savedWatermark = value;
+            }
+        } catch (IOException e) {
+            log.warn("Failed to save update checkpoint", e);
+        }
+    }
+
+    private int index(long id) {
+        return (int) Math.floorMod(id, (long) ids.length);
+    }
+}
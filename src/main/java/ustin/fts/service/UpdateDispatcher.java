@@ -0,0 +1,166 @@
+package ustin.fts.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import ustin.fts.service.handlers.Handler;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Распределение обновлений по полосам (stripes) по chatId.
+ * <p>
+ * Каждая полоса - очередь и один рабочий поток, поэтому обновления одного чата
+ * обрабатываются строго по порядку, а разные чаты - параллельно,
+ * не более fts.dispatch.stripes одновременно. Долгий /process блокирует
+ * только чаты своей полосы.
+ * <p>
+ * Обновление регистрируется в {@link UpdateDeduplicator} до постановки в очередь:
+ * повторная доставка отбрасывается сразу, а отметка обработанных не обгонит
+ * обновление, ожидающее в другой полосе.
+ */
+@Slf4j
+@Component
+public class UpdateDispatcher {
+
+    private final Handler handler;
+    private final UpdateDeduplicator deduplicator;
+    private final Stripe[] stripes;
+
+    public UpdateDispatcher(Handler handler,
+                            UpdateDeduplicator deduplicator,
+                            @Value("${fts.dispatch.stripes:16}") int stripes,
+                            @Value("${fts.dispatch.queue-capacity:256}") int queueCapacity) {
+        this.handler = handler;
+        this.deduplicator = deduplicator;
+        this.stripes = new Stripe[Math.max(1, stripes)];
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new Stripe(i, queueCapacity);
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        for (var stripe : stripes) {
+            stripe.worker = Thread.ofVirtual().name("dispatch-" + stripe.index).start(stripe::run);
+        }
+        log.info("Update dispatcher started: {} stripes", stripes.length);
+    }
+
+    @PreDestroy
+    public void stop() {
+        for (var stripe : stripes) {
+            if (stripe.worker != null) stripe.worker.interrupt();
+        }
+    }
+
+    /**
+     * Поставить обновление в очередь своего чата, ожидая места в очереди
+     */
+    public void dispatch(Update update) throws InterruptedException {
+        if (!register(update)) return;
+        try {
+            stripeOf(update).queue.put(update);
+        } catch (InterruptedException e) {
+            forget(update);
+            throw e;
+        }
+    }
+
+    /**
+     * Поставить обновление в очередь без ожидания
+     *
+     * @return false, если очередь полосы заполнена; повтор уже полученного обновления принимается
+     */
+    public boolean tryDispatch(Update update) {
+        if (!register(update)) return true;
+        if (stripeOf(update).queue.offer(update)) return true;
+        forget(update);
+        return false;
+    }
+
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * Глубина очереди полосы
+     */
+    public int getQueueDepth(int stripe) {
+        return stripes[stripe].queue.size();
+    }
+
+    /**
+     * Суммарное число ожидающих обновлений
+     */
+    public int getTotalQueueDepth() {
+        int total = 0;
+        for (var stripe : stripes) {
+            total += stripe.queue.size();
+        }
+        return total;
+    }
+
+    private boolean register(Update update) {
+        var updateId = update.getUpdateId();
+        if (updateId != null && !deduplicator.firstSeen(updateId)) {
+            log.debug("Duplicate update {} dropped", updateId);
+            return false;
+        }
+        return true;
+    }
+
+    private void forget(Update update) {
+        if (update.getUpdateId() != null) deduplicator.forget(update.getUpdateId());
+    }
+
+    private Stripe stripeOf(Update update) {
+        var chatId = chatId(update);
+        if (chatId == null) return stripes[0];
+        return stripes[Math.floorMod(Long.hashCode(chatId), stripes.length)];
+    }
+
+    /**
+     * chatId обновления или null, если обновление не относится к чату
+     */
+    public static Long chatId(Update update) {
+        if (update.hasMessage()) return update.getMessage().getChatId();
+        if (update.hasEditedMessage()) return update.getEditedMessage().getChatId();
+        if (update.hasCallbackQuery() && update.getCallbackQuery().getMessage() != null) {
+            return update.getCallbackQuery().getMessage().getChatId();
+        }
+        return null;
+    }
+
+    private final class Stripe {
+        final int index;
+        final BlockingQueue<Update> queue;
+        Thread worker;
+
+        Stripe(int index, int capacity) {
+            this.index = index;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                Update update;
+                try {
+                    update = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    handler.handle(update);
+                } catch (Throwable e) {
+                    // Даже Error не должен останавливать полосу: ее обновления больше никто не обработает
+                    log.error("Unhandled error in stripe {}, update {}", index, update.getUpdateId(), e);
+                }
+            }
+        }
+    }
+}
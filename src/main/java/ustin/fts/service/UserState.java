@@ -1,27 +1,36 @@
 package ustin.fts.service;
 
 import lombok.Data;
-import java.util.ArrayList;
+
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 @Data
 public class UserState {
     private Long chatId;                    // ID чата
     private String currentCommand;           // Текущая команда (/fts)
     private int expectedFiles;                // Сколько файлов нужно
-    private List<String> receivedFiles;       // ID полученных файлов
+    private List<ReceivedFile> receivedFiles; // Полученные файлы
     private List<String> expectedFileTypes;   // Ожидаемые типы файлов
+    private volatile long lastAccessAt;       // Время последнего обращения (мс), для вытеснения по TTL
 
     public UserState(Long chatId) {
         this.chatId = chatId;
-        this.receivedFiles = new ArrayList<>();
-        this.expectedFileTypes = new ArrayList<>();
+        // Списки короткие и читаются чаще, чем меняются: копирование при записи
+        // избавляет обработчики от гонок без внешней синхронизации
+        this.receivedFiles = new CopyOnWriteArrayList<>();
+        this.expectedFileTypes = new CopyOnWriteArrayList<>();
         this.expectedFiles = 0;
         this.currentCommand = null;
+        this.lastAccessAt = System.currentTimeMillis();
+    }
+
+    public void touch() {
+        lastAccessAt = System.currentTimeMillis();
     }
 
-    public void addReceivedFile(String fileId) {
-        receivedFiles.add(fileId);
+    public void addReceivedFile(ReceivedFile file) {
+        receivedFiles.add(file);
     }
 
     public boolean isComplete() {
@@ -1,40 +1,138 @@
 package ustin.fts.service;
 
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
 
+/**
+ * Сессии пользователей.
+ * <p>
+ * Хранилище ограничено: сессия без обращений дольше fts.session.idle-ttl-minutes
+ * удаляется фоновой очисткой, а при превышении fts.session.max-size вытесняется
+ * самая давно не использованная. Вытеснение, как и /cancel, публикует
+ * {@link SessionClosedEvent}, и связанные ресурсы освобождаются.
+ */
 @Slf4j
 @Service
 public class UserStateService {
 
+    private final ApplicationEventPublisher events;
+    private final SessionJournal journal;
+    private final long idleTtlMs;
+    private final int maxSize;
+
     // Хранилище состояний для каждого чата (потокобезопасное)
-    private final Map<Long, UserState> userStates = new ConcurrentHashMap<>();
+    private final LongKeyMap<UserState> userStates = new LongKeyMap<>();
+
+    public UserStateService(ApplicationEventPublisher events,
+                            SessionJournal journal,
+                            @Value("${fts.session.idle-ttl-minutes:60}") long idleTtlMinutes,
+                            @Value("${fts.session.max-size:10000}") int maxSize) {
+        this.events = events;
+        this.journal = journal;
+        this.idleTtlMs = Duration.ofMinutes(idleTtlMinutes).toMillis();
+        this.maxSize = Math.max(1, maxSize);
+    }
+
+    /**
+     * Восстановить незавершенные сессии из журнала
+     */
+    @PostConstruct
+    public void restore() {
+        journal.open(new SessionJournal.Replay() {
+            @Override
+            public void start(long chatId, String command, int expectedFiles, List<String> fileTypes) {
+                var state = userStates.computeIfAbsent(chatId, UserState::new);
+                state.setCurrentCommand(command);
+                state.setExpectedFiles(expectedFiles);
+                state.getReceivedFiles().clear();
+                state.getExpectedFileTypes().clear();
+                state.getExpectedFileTypes().addAll(fileTypes);
+            }
+
+            @Override
+            public void file(long chatId, ReceivedFile file) {
+                var state = userStates.get(chatId);
+                // Запись могла попасть и в snapshot, и в журнал
+                if (state != null && state.getReceivedFiles().stream()
+                        .noneMatch(f -> f.fileUniqueId().equals(file.fileUniqueId()))) {
+                    state.addReceivedFile(file);
+                }
+            }
+
+            @Override
+            public void remove(long chatId) {
+                userStates.remove(chatId);
+            }
+        }, userStates::values);
+        if (userStates.size() > 0) {
+            log.info("Restored {} sessions", userStates.size());
+        }
+    }
 
     /**
      * Получить состояние пользователя или создать новое
      */
     public UserState getOrCreateState(Long chatId) {
-        return userStates.computeIfAbsent(chatId, id -> {
-            log.debug("Creating new state for chat: {}", id);
-            return new UserState(id);
-        });
+        var state = userStates.get(chatId);
+        if (state == null) {
+            if (userStates.size() >= maxSize) {
+                evictOldest();
+            }
+            state = userStates.computeIfAbsent(chatId, id -> {
+                log.debug("Creating new state for chat: {}", id);
+                return new UserState(id);
+            });
+        }
+        state.touch();
+        return state;
     }
 
     /**
      * Получить состояние пользователя
      */
     public UserState getState(Long chatId) {
-        return userStates.get(chatId);
+        var state = userStates.get(chatId);
+        if (state != null) {
+            state.touch();
+        }
+        return state;
     }
 
     /**
      * Проверить, есть ли состояние у пользователя
      */
     public boolean hasState(Long chatId) {
-        return userStates.containsKey(chatId);
+        return userStates.get(chatId) != null;
+    }
+
+    /**
+     * Удалить сессии без обращений дольше TTL
+     */
+    @Scheduled(fixedDelayString = "${fts.session.sweep-interval-ms:60000}")
+    public void evictExpired() {
+        var deadline = System.currentTimeMillis() - idleTtlMs;
+        var expired = userStates.removeIf((chatId, state) -> state.getLastAccessAt() < deadline);
+        expired.forEach(this::closed);
+        if (!expired.isEmpty()) {
+            log.info("Evicted {} idle sessions, {} left", expired.size(), userStates.size());
+        }
+    }
+
+    private void evictOldest() {
+        var oldest = userStates.minBy(UserState::getLastAccessAt);
+        if (oldest != null && userStates.remove(oldest) != null) {
+            log.info("Session limit {} reached, evicted chat {}", maxSize, oldest);
+            closed(oldest);
+        }
     }
 
     /**
@@ -45,6 +143,12 @@ public class UserStateService {
         if (removed != null) {
             log.debug("Removed state for chat: {}", chatId);
         }
+        closed(chatId);
+    }
+
+    private void closed(long chatId) {
+        journal.logRemove(chatId);
+        events.publishEvent(new SessionClosedEvent(chatId));
     }
 
     /**
@@ -61,6 +165,8 @@ public class UserStateService {
             state.getExpectedFileTypes().add(type.toLowerCase());
         }
 
+        journal.logStart(chatId, command, expectedCount, state.getExpectedFileTypes());
+
         log.info("Set waiting for files for chat {}: command={}, expected={}, types={}",
                 chatId, command, expectedCount, String.join(", ", fileTypes));
     }
@@ -68,15 +174,40 @@ public class UserStateService {
     /**
      * Добавить полученный файл
      */
-    public void addReceivedFile(Long chatId, String fileId) {
+    public void addReceivedFile(Long chatId, ReceivedFile file) {
         UserState state = getState(chatId);
         if (state != null) {
-            state.addReceivedFile(fileId);
+            synchronized (state) {
+                state.addReceivedFile(file);
+                journal.logFile(chatId, file);
+            }
             log.debug("Added file for chat {}. Progress: {}/{}",
                     chatId, state.getReceivedFiles().size(), state.getExpectedFiles());
         }
     }
 
+    /**
+     * Убрать из сессии обработанные файлы. Если после /process ничего не присылали,
+     * сессия закрывается, иначе остается с новыми файлами
+     */
+    public void completeBatch(Long chatId, Collection<ReceivedFile> batch) {
+        UserState state = userStates.get(chatId);
+        if (state == null) return;
+
+        var processed = batch.stream().map(ReceivedFile::fileUniqueId).collect(Collectors.toSet());
+        synchronized (state) {
+            state.getReceivedFiles().removeIf(f -> processed.contains(f.fileUniqueId()));
+            if (!state.getReceivedFiles().isEmpty()) {
+                // В журнал сессия записывается заново, уже без обработанных файлов
+                journal.logStart(chatId, state.getCurrentCommand(), state.getExpectedFiles(), state.getExpectedFileTypes());
+                state.getReceivedFiles().forEach(f -> journal.logFile(chatId, f));
+                log.debug("Chat {} keeps {} files received after /process", chatId, state.getReceivedFiles().size());
+                return;
+            }
+        }
+        removeState(chatId);
+    }
+
     /**
      * Проверить, все ли файлы получены
      */
@@ -121,9 +252,9 @@ public class UserStateService {
     }
 
     /**
-     * Получить все полученные fileId
+     * Получить все полученные файлы
      */
-    public java.util.List<String> getReceivedFiles(Long chatId) {
+    public java.util.List<ReceivedFile> getReceivedFiles(Long chatId) {
         UserState state = getState(chatId);
         return state != null ? state.getReceivedFiles() : java.util.Collections.emptyList();
     }
@@ -139,7 +270,9 @@ public class UserStateService {
      * Очистить все состояния (например, при перезагрузке)
      */
     public void clearAllStates() {
+        var chatIds = userStates.keys();
         userStates.clear();
+        chatIds.forEach(this::closed);
         log.info("Cleared all user states");
     }
 }
\ No newline at end of file
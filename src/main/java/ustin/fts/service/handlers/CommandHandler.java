@@ -3,8 +3,17 @@ package ustin.fts.service.handlers;
 import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.meta.generics.TelegramClient;
 
+import java.util.List;
+
 public interface CommandHandler {
-    boolean canHandle(Update update);
+
+    /**
+     * Маршруты, которые обслуживает обработчик. Читаются один раз при старте
+     */
+    default List<Route> routes() {
+        return List.of(Route.text(getCommandName()));
+    }
+
     void execute(Update update, TelegramClient client);
     String getCommandName();
-}
\ No newline at end of file
+}
@@ -1,46 +1,57 @@
 package ustin.fts.service.handlers;
 
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.objects.Update;
-import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 import org.telegram.telegrambots.meta.generics.TelegramClient;
+import ustin.fts.service.UpdateDeduplicator;
+import ustin.fts.service.outbound.MessageSender;
 
 import jakarta.annotation.PostConstruct;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 @Slf4j
 @Service
 public class HandlerImpl implements Handler {
 
     private final List<CommandHandler> commandHandlers;
+    private final MessageSender sender;
+    private final UpdateDeduplicator deduplicator;
+    private final MeterRegistry registry;
     private TelegramClient client;
-    private final Map<String, CommandHandler> textCommandMap = new ConcurrentHashMap<>();
-    private final List<CommandHandler> allHandlers;
+    // Таблица маршрутов, заполняется один раз при старте
+    private Map<Route, CommandHandler> routes = Map.of();
 
-    public HandlerImpl(List<CommandHandler> commandHandlers) {
+    public HandlerImpl(List<CommandHandler> commandHandlers, MessageSender sender,
+                       UpdateDeduplicator deduplicator, MeterRegistry registry) {
         this.commandHandlers = commandHandlers;
-        this.allHandlers = commandHandlers;
+        this.sender = sender;
+        this.deduplicator = deduplicator;
+        this.registry = registry;
     }
 
     @PostConstruct
     public void init() {
+        Map<Route, CommandHandler> table = new HashMap<>();
         for (CommandHandler handler : commandHandlers) {
-            var commandName = handler.getCommandName();
-            if (commandName != null && !commandName.isEmpty()) {
-                textCommandMap.put(commandName, handler);
-                log.info("Registered text command: '{}' -> {}", commandName, handler.getClass().getSimpleName());
-            } else {
-                log.info("Registered non-text handler: {}", handler.getClass().getSimpleName());
+            for (var route : handler.routes()) {
+                var previous = table.putIfAbsent(route, handler);
+                if (previous != null) {
+                    throw new IllegalStateException(String.format("Route %s is claimed by both %s and %s",
+                            route, previous.getClass().getSimpleName(), handler.getClass().getSimpleName()));
+                }
+                log.info("Registered route {} -> {}", route, handler.getClass().getSimpleName());
             }
         }
-        log.info("Total handlers loaded: {}", commandHandlers.size());
+        routes = Map.copyOf(table);
+        log.info("Total handlers loaded: {}, routes: {}", commandHandlers.size(), routes.size());
     }
 
     @Autowired
@@ -50,6 +61,8 @@ public class HandlerImpl implements Handler {
 
     @Override
     public void handle(Update update) {
+        // Повторы отсеяны при постановке в очередь (UpdateDispatcher)
+        var updateId = update.getUpdateId();
         try {
             if (!update.hasMessage()) {return;}
 
@@ -57,7 +70,16 @@ public class HandlerImpl implements Handler {
 
             if (handler != null) {
                 log.info("Found handler: {}", handler.getClass().getSimpleName());
-                handler.execute(update, client);
+                var sample = Timer.start();
+                try {
+                    handler.execute(update, client);
+                } finally {
+                    sample.stop(Timer.builder("fts.update.handle")
+                            .description("Обработка обновления обработчиком")
+                            .tag("handler", handler.getClass().getSimpleName())
+                            .publishPercentileHistogram()
+                            .register(registry));
+                }
             } else {
                 log.warn("No handler found for update");
                 handleNoHandler(update);
@@ -66,32 +88,16 @@ public class HandlerImpl implements Handler {
         } catch (Exception e) {
             log.error("Error handling update", e);
             sendErrorMessage(update);
+        } finally {
+            // Упавшее обновление тоже считается обработанным: повтор дал бы ту же ошибку.
+            // Обработчик может продлить обработку через UpdateDeduplicator.retain
+            if (updateId != null) deduplicator.markDone(updateId);
         }
     }
 
     private CommandHandler findHandler(Update update) {
-        var message = update.getMessage();
-
-        for (CommandHandler handler : allHandlers) {
-            try {
-                if (handler.canHandle(update)) {
-                    log.debug("Handler {} can handle this update", handler.getClass().getSimpleName());
-                    return handler;
-                }
-            } catch (Exception e) {
-                log.error("Error checking canHandle for {}", handler.getClass().getSimpleName(), e);
-            }
-        }
-
-        if (message.hasText()) {
-            var text = message.getText();
-            var handler = textCommandMap.get(text);
-            if (handler != null && handler.canHandle(update)) {
-                return handler;
-            }
-        }
-
-        return null;
+        var route = Route.of(update);
+        return route != null ? routes.get(route) : null;
     }
 
     private void handleNoHandler(Update update) {
@@ -111,13 +117,6 @@ public class HandlerImpl implements Handler {
     }
 
     private void sendText(Long chatId, String text) {
-        try {
-            client.execute(SendMessage.builder()
-                    .chatId(chatId)
-                    .text(text)
-                    .build());
-        } catch (TelegramApiException e) {
-            log.error("Failed to send message to chat: {}", chatId, e);
-        }
+        sender.text(chatId, text);
     }
 }
\ No newline at end of file
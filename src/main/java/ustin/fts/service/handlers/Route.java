@@ -0,0 +1,37 @@
+package ustin.fts.service.handlers;
+
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+/**
+ * Ключ маршрутизации обновления: вид сообщения и, для текста, сама команда
+ */
+public record Route(Kind kind, String command) {
+
+    public enum Kind {
+        TEXT,
+        DOCUMENT
+    }
+
+    /**
+     * Любой документ
+     */
+    public static final Route DOCUMENT = new Route(Kind.DOCUMENT, null);
+
+    /**
+     * Текстовая команда, например "/start"
+     */
+    public static Route text(String command) {
+        return new Route(Kind.TEXT, command);
+    }
+
+    /**
+     * Маршрут обновления или null, если сообщение не текст и не документ
+     */
+    public static Route of(Update update) {
+        if (!update.hasMessage()) return null;
+        var message = update.getMessage();
+        if (message.hasDocument()) return DOCUMENT;
+        if (message.hasText()) return text(message.getText());
+        return null;
+    }
+}
@@ -1,23 +1,43 @@
 package ustin.fts.service.handlers.impl;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
-import org.telegram.telegrambots.meta.api.methods.GetFile;
-import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.methods.send.SendDocument;
+import org.telegram.telegrambots.meta.api.objects.InputFile;
 import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.meta.generics.TelegramClient;
+import ustin.fts.service.ReceivedFile;
+import ustin.fts.service.UpdateDeduplicator;
 import ustin.fts.service.UserState;
 import ustin.fts.service.UserStateService;
 import ustin.fts.service.handlers.CommandHandler;
-import ustin.fts.xml.model.DTData;
-import ustin.fts.xml.service.XmlService;
+import ustin.fts.service.handlers.Route;
+import ustin.fts.service.jobs.Job;
+import ustin.fts.service.jobs.JobScheduler;
+import ustin.fts.service.outbound.MessageSender;
+import ustin.fts.service.outbound.Priority;
+import ustin.fts.service.outbound.StatusMessages;
+import ustin.fts.service.processing.ArchiveType;
+import ustin.fts.service.processing.DtCache;
+import ustin.fts.service.processing.FilePrefetcher;
+import ustin.fts.service.processing.JoinEngine;
+import ustin.fts.service.processing.JoinResult;
+import ustin.fts.service.processing.ParseResult;
+import ustin.fts.service.processing.ResultWorkbookWriter;
+import ustin.fts.xlsx.service.XlsxService;
+import ustin.fts.xml.plan.ExtractionPlan;
 
-import java.io.ByteArrayInputStream;
-import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Slf4j
 @Component
@@ -25,22 +45,31 @@ import java.util.*;
 public class DocumentHandler implements CommandHandler {
 
     private final UserStateService stateService;
-    private final XmlService xmlService;
+    private final UpdateDeduplicator deduplicator;
+    private final DtCache dtCache;
+    private final XlsxService xlsxService;
+    private final JoinEngine joinEngine;
+    private final FilePrefetcher prefetcher;
+    private final MessageSender sender;
+    private final StatusMessages status;
+    private final JobScheduler jobs;
+    private final ExtractionPlan plan;
+    private final MeterRegistry registry;
 
-    @Value("${telegram.bot.token}")
-    private String token;
+    @Value("${fts.result.row-window:100}")
+    private int resultRowWindow;
 
     private static final String XLSX_EXT = "xlsx";
     private static final String XML_EXT = "xml";
     private static final String PROCESS = "/process";
     private static final String CANCEL = "/cancel";
+    private static final int MAX_REPORTED_ERRORS = 10;
+    private static final String RESULT_FILE_NAME = "result.xlsx";
+    private static final int ARCHIVE_WEIGHT = 50;
 
     @Override
-    public boolean canHandle(Update update) {
-        if (!update.hasMessage()) return false;
-        var msg = update.getMessage();
-        return msg.hasDocument() ||
-               (msg.hasText() && (msg.getText().equals(PROCESS) || msg.getText().equals(CANCEL)));
+    public List<Route> routes() {
+        return List.of(Route.DOCUMENT, Route.text(PROCESS), Route.text(CANCEL));
     }
 
     @Override
@@ -50,125 +79,310 @@ public class DocumentHandler implements CommandHandler {
             var state = stateService.getState(chatId);
             if (state == null || !"/fts".equals(state.getCurrentCommand())) {
                 if (update.getMessage().hasDocument())
-                    sendMsg(client, chatId, "📁 Сначала введите /fts");
+                    sendMsg(chatId, "📁 Сначала введите /fts");
                 return;
             }
 
             if (update.getMessage().hasText()) {
-                handleText(update, client, chatId, state);
+                handleText(update, chatId, state);
             } else {
-                handleDoc(update, client, chatId, state);
+                handleDoc(update, chatId, state);
             }
         } catch (Exception e) {
             log.error("Error", e);
-            sendMsg(client, chatId, "❌ " + e.getMessage());
+            sendMsg(chatId, "❌ " + e.getMessage());
         }
     }
 
-    private void handleText(Update update, TelegramClient client, Long chatId, UserState state) {
+    private void handleText(Update update, Long chatId, UserState state) {
         var text = update.getMessage().getText();
         if (text.equals(PROCESS)) {
-            processAll(client, chatId, state);
+            processAll(chatId, state, update.getUpdateId());
         } else if (text.equals(CANCEL)) {
             stateService.removeState(chatId);
-            sendMsg(client, chatId, "❌ Отменено");
+            sendMsg(chatId, "❌ Отменено");
         }
     }
 
-    private void processAll(TelegramClient client, Long chatId, UserState state) {
+    private void processAll(Long chatId, UserState state, Integer updateId) {
         var files = state.getReceivedFiles();
-        var hasXlsx = files.stream().anyMatch(f -> f.endsWith("." + XLSX_EXT));
-        var xmlCount = files.stream().filter(f -> f.endsWith("." + XML_EXT)).count();
+        var hasXlsx = files.stream().anyMatch(f -> XLSX_EXT.equals(f.type()));
+        var xmlCount = files.stream().filter(f -> !XLSX_EXT.equals(f.type())).count();
 
         if (!hasXlsx || xmlCount == 0) {
-            sendMsg(client, chatId, "❌ Нужен 1 XLSX и минимум 1 XML");
+            sendMsg(chatId, "❌ Нужен 1 XLSX и минимум 1 XML или архив с XML");
             return;
         }
 
-        sendMsg(client, chatId, "🔄 Обработка...");
+        // Снимок списка: файлы, присланные после /process, в задачу не попадут
+        var batch = List.copyOf(files);
+        // /process считается обработанным, когда завершится задача, а не когда она принята
+        Runnable release = () -> {
+        };
+        if (updateId != null) {
+            deduplicator.retain(updateId);
+            release = () -> deduplicator.markDone(updateId);
+        }
         try {
-            processFiles(files, chatId, client);
-            stateService.removeState(chatId);
+            var submission = jobs.submit(chatId, weight(batch), job -> runJob(job, batch, chatId), release);
+            var job = submission.job();
+            if (submission.position() > 0 && job.getState() == Job.State.QUEUED) {
+                status.show(chatId, String.format("📋 Задача #%d в очереди, позиция %d\n%s - отмена",
+                        job.getId(), submission.position(), CANCEL));
+            }
+        } catch (JobScheduler.RejectedException e) {
+            release.run();
+            sendMsg(chatId, "❌ " + e.getMessage());
+        }
+    }
+
+    private void runJob(Job job, List<ReceivedFile> files, Long chatId) throws Exception {
+        status.show(chatId, String.format("🔄 Задача #%d: обработка...", job.getId()));
+        var sample = Timer.start();
+        var outcome = "done";
+        try {
+            processFiles(files, chatId, job);
+            // Файлы, присланные после /process, остаются в сессии вместе с их загрузкой
+            prefetcher.forget(chatId, files);
+            stateService.completeBatch(chatId, files);
+        } catch (CancellationException e) {
+            // Об отмене пользователь уже знает из ответа на /cancel
+            outcome = "cancelled";
+            throw e;
         } catch (Exception e) {
-            log.error("Error", e);
-            sendMsg(client, chatId, "❌ " + e.getMessage());
+            outcome = "failed";
+            // Ошибку с трассировкой логирует JobScheduler
+            status.complete(chatId, String.format("❌ Задача #%d прервана", job.getId()));
+            sendMsg(chatId, "❌ " + e.getMessage());
+            throw e;
+        } finally {
+            sample.stop(Timer.builder("fts.job")
+                    .description("Выполнение /process целиком")
+                    .tag("outcome", outcome)
+                    .publishPercentileHistogram()
+                    .register(registry));
+        }
+    }
+
+    /**
+     * Таймер этапа обработки: declarations - ожидание разбора XML,
+     * registry - ожидание загрузки реестра, join - чтение реестра, сопоставление и запись результата
+     */
+    private Timer stageTimer(String stage) {
+        return Timer.builder("fts.stage")
+                .tag("stage", stage)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    /**
+     * Оценка объема задачи для очереди: архив считается за ARCHIVE_WEIGHT файлов
+     */
+    private int weight(List<ReceivedFile> files) {
+        int weight = 0;
+        for (var file : files) {
+            weight += ArchiveType.of(file.type()) != null ? ARCHIVE_WEIGHT : 1;
         }
+        return weight;
     }
 
-    private void handleDoc(Update update, TelegramClient client, Long chatId, UserState state) {
+    private void handleDoc(Update update, Long chatId, UserState state) {
         var doc = update.getMessage().getDocument();
         var ext = getExt(doc.getFileName());
         var files = state.getReceivedFiles();
 
-        if (!ext.equals(XLSX_EXT) && !ext.equals(XML_EXT)) {
-            sendMsg(client, chatId, "❌ Только .xlsx и .xml");
+        if (!ext.equals(XLSX_EXT) && !ext.equals(XML_EXT) && ArchiveType.of(ext) == null) {
+            sendMsg(chatId, "❌ Только .xlsx, .xml, .zip и .tar.gz");
+            return;
+        }
+
+        // Повторно присланный файл не должен учитываться в счетчиках и разбираться дважды
+        if (files.stream().anyMatch(f -> f.fileUniqueId().equals(doc.getFileUniqueId()))) {
+            sendMsg(chatId, "⚠️ Файл " + doc.getFileName() + " уже получен");
             return;
         }
 
-        if (ext.equals(XLSX_EXT) && files.stream().anyMatch(f -> f.endsWith("." + XLSX_EXT))) {
-            sendMsg(client, chatId, "❌ Только один XLSX");
+        if (ext.equals(XLSX_EXT) && files.stream().anyMatch(f -> XLSX_EXT.equals(f.type()))) {
+            sendMsg(chatId, "❌ Только один XLSX");
             return;
         }
 
-        stateService.addReceivedFile(chatId, doc.getFileId() + "." + ext);
+        var file = new ReceivedFile(doc.getFileId(), doc.getFileUniqueId(), ext,
+                doc.getFileSize() != null ? doc.getFileSize() : 0);
+        stateService.addReceivedFile(chatId, file);
+
+        var xmlCount = state.getReceivedFiles().stream().filter(f -> XML_EXT.equals(f.type())).count();
+        var archiveCount = state.getReceivedFiles().stream().filter(f -> ArchiveType.of(f.type()) != null).count();
+        var hasXlsx = state.getReceivedFiles().stream().anyMatch(f -> XLSX_EXT.equals(f.type()));
 
-        var xmlCount = state.getReceivedFiles().stream().filter(f -> f.endsWith("." + XML_EXT)).count();
-        var hasXlsx = state.getReceivedFiles().stream().anyMatch(f -> f.endsWith("." + XLSX_EXT));
+        // Скачивание и разбор начинаются сразу, /process только дождется результата
+        if (ext.equals(XLSX_EXT)) {
+            prefetcher.registry(chatId, file);
+        } else {
+            prefetcher.declarations(chatId, file, sourceName(file, ext.equals(XML_EXT) ? xmlCount : archiveCount));
+        }
 
-        sendMsg(client, chatId, String.format(
-                "✅ Загружено\n📊 XLSX: %s\n📄 XML: %d\n\n%s - старт\n%s - отмена",
-                hasXlsx ? "1/1" : "0/1", xmlCount, PROCESS, CANCEL));
+        // Пачка файлов дает одно обновляемое сообщение, а не подтверждение на каждый
+        status.show(chatId, String.format(
+                "✅ Загружено\n📊 XLSX: %s\n📄 XML: %d\n🗜 Архивов: %d\n\n%s - старт\n%s - отмена",
+                hasXlsx ? "1/1" : "0/1", xmlCount, archiveCount, PROCESS, CANCEL));
     }
 
-    private void processFiles(List<String> fileIds, Long chatId, TelegramClient client) throws Exception {
-        byte[] xlsxData = null;
-        List<byte[]> xmlList = new ArrayList<>();
+    private void processFiles(List<ReceivedFile> files, Long chatId, Job job) throws Exception {
+        ReceivedFile xlsx = null;
+        List<CompletableFuture<List<ParseResult>>> pending = new ArrayList<>();
+        int xmlCount = 0;
+        int archiveCount = 0;
 
-        for (String id : fileIds) {
-            var parts = id.split("\\.(?=[^.]+$)");
-            var bytes = download(parts[0], client);
-            if (XLSX_EXT.equals(parts[1])) {
-                xlsxData = bytes;
+        // Файлы, прием которых уже запустил загрузку, не скачиваются повторно
+        for (var file : files) {
+            if (XLSX_EXT.equals(file.type())) {
+                xlsx = file;
+                prefetcher.registry(chatId, file);
             } else {
-                xmlList.add(bytes);
+                var index = XML_EXT.equals(file.type()) ? ++xmlCount : ++archiveCount;
+                pending.add(prefetcher.declarations(chatId, file, sourceName(file, index)));
             }
         }
 
-        if (xlsxData == null || xmlList.isEmpty())
+        if (xlsx == null || pending.isEmpty())
             throw new RuntimeException("Нет файлов");
 
-        var dtList = xmlList.stream()
-                .map(xmlService::parseXml)
+        var done = new AtomicInteger();
+        var parsed = new AtomicInteger();
+        for (var task : pending) {
+            task.thenAccept(list -> {
+                parsed.addAndGet((int) list.stream().filter(ParseResult::isOk).count());
+                status.show(chatId, String.format("🔄 Обработка...\n📥 Файлов: %d/%d\n📄 Разобрано ДТ: %d",
+                        done.incrementAndGet(), pending.size(), parsed.get()));
+            });
+        }
+
+        List<ParseResult> results = new ArrayList<>();
+        var declarations = Timer.start();
+        for (var task : pending) {
+            results.addAll(await(task));
+            job.checkCancelled();
+        }
+        declarations.stop(stageTimer("declarations"));
+        log.info("DT cache: {} hits, {} misses, {}/{} entries",
+                dtCache.getHits(), dtCache.getMisses(), dtCache.size(), dtCache.getMaxEntries());
+
+        var dtList = results.stream()
+                .filter(ParseResult::isOk)
+                .map(ParseResult::data)
                 .peek(dt -> log.info("ДТ: {}", dt))
                 .toList();
+        var failed = results.stream()
+                .filter(r -> !r.isOk())
+                .toList();
+
+        if (dtList.isEmpty())
+            throw new RuntimeException("Не удалось разобрать ни одного XML" + formatErrors(failed));
 
         // ========== РАБОТА С XLSX ==========
-        try (var wb = new XSSFWorkbook(new ByteArrayInputStream(xlsxData))) {
-            var sheet = wb.getSheetAt(0);
-            // TODO: Ваша логика с dtList и sheet
-            log.info("XLSX: {} строк, XML: {}", sheet.getPhysicalNumberOfRows(), dtList.size());
+        var registryWait = Timer.start();
+        try (var xlsxFile = await(prefetcher.takeRegistry(chatId, xlsx))) {
+            registryWait.stop(stageTimer("registry"));
+            job.checkCancelled();
+            var resultFile = Files.createTempFile("fts-result-", "." + XLSX_EXT);
+            try {
+                JoinResult join;
+                var joinStage = Timer.start();
+                try (var rows = xlsxService.readFirstSheet(xlsxFile.path());
+                     var writer = new ResultWorkbookWriter(resultRowWindow, plan.goods() != null)) {
+                    join = joinEngine.join(dtList, rows, writer);
+                    writer.writeTo(resultFile);
+                }
+                joinStage.stop(stageTimer("join"));
+                log.info("XLSX: {} строк, XML: {}", join.rows(), dtList.size());
+                job.checkCancelled();
+                status.complete(chatId, String.format("✅ Обработано\n📥 Файлов: %d\n📄 ДТ: %d\n📊 Сопоставлено строк: %d/%d",
+                        pending.size(), dtList.size(), join.matchedRows(), join.rows()));
+
+                sendResult(chatId, resultFile);
+                sender.text(chatId, String.format("✅ Готово: %d XML", dtList.size())
+                                    + formatJoin(join) + formatErrors(failed), Priority.RESULT);
+            } catch (Exception e) {
+                Files.deleteIfExists(resultFile);
+                throw e;
+            }
         }
         // ===================================
-
-        sendMsg(client, chatId, String.format("✅ Готово: %d XML", dtList.size()));
     }
 
-    private byte[] download(String fileId, TelegramClient client) throws Exception {
-        var file = client.execute(new GetFile(fileId));
-        try (var is = new URL("https://api.telegram.org/file/bot" + token + "/" + file.getFilePath()).openStream()) {
-            return is.readAllBytes();
+    private String formatJoin(JoinResult join) {
+        var sb = new StringBuilder(String.format("\n📊 Строк реестра: %d, сопоставлено: %d", join.rows(), join.matchedRows()));
+        if (join.unmatchedRows() > 0) {
+            sb.append("\n\n❔ Строки без ДТ: ").append(join.unmatchedRows());
+            var numbers = join.unmatchedRowNumbers().stream()
+                    .limit(MAX_REPORTED_ERRORS)
+                    .map(String::valueOf)
+                    .toList();
+            sb.append(" (").append(String.join(", ", numbers));
+            sb.append(join.unmatchedRows() > numbers.size() ? ", …)" : ")");
         }
+        if (!join.unmatchedDeclarations().isEmpty()) {
+            sb.append("\n\n❔ ДТ без строк в реестре: ").append(join.unmatchedDeclarations().size());
+            join.unmatchedDeclarations().stream()
+                    .limit(MAX_REPORTED_ERRORS)
+                    .forEach(dt -> sb.append("\n• ").append(dt.getPrDocumentNumber())
+                            .append(dt.getPrDocumentDateText().isEmpty() ? "" : " от " + dt.getPrDocumentDateText()));
+            if (join.unmatchedDeclarations().size() > MAX_REPORTED_ERRORS) {
+                sb.append("\n…");
+            }
+        }
+        return sb.toString();
     }
 
-    private void sendMsg(TelegramClient client, Long chatId, String text) {
+    private String sourceName(ReceivedFile file, long index) {
+        return (XML_EXT.equals(file.type()) ? "XML #" : "Архив #") + index;
+    }
+
+    private <T> T await(CompletableFuture<T> task) throws Exception {
         try {
-            client.execute(SendMessage.builder().chatId(chatId).text(text).build());
-        } catch (Exception e) {
-            log.error("Send error", e);
+            return task.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
+    private String formatErrors(List<ParseResult> failed) {
+        if (failed.isEmpty()) return "";
+        var sb = new StringBuilder("\n\n⚠️ Ошибки разбора: ").append(failed.size());
+        failed.stream()
+                .limit(MAX_REPORTED_ERRORS)
+                .forEach(r -> sb.append("\n• ").append(r.source()).append(": ").append(r.error()));
+        if (failed.size() > MAX_REPORTED_ERRORS) {
+            sb.append("\n…");
         }
+        return sb.toString();
+    }
+
+    /**
+     * Отправить результат. Файл удаляется после отправки
+     */
+    private void sendResult(Long chatId, Path resultFile) {
+        sender.document(chatId, SendDocument.builder()
+                        .chatId(chatId)
+                        .document(new InputFile(resultFile.toFile(), RESULT_FILE_NAME))
+                        .build())
+                .whenComplete((message, e) -> {
+                    try {
+                        Files.deleteIfExists(resultFile);
+                    } catch (Exception ex) {
+                        log.warn("Failed to delete {}", resultFile, ex);
+                    }
+                });
+    }
+
+    private void sendMsg(Long chatId, String text) {
+        sender.text(chatId, text);
     }
 
     private String getExt(String name) {
+        var lower = name.toLowerCase();
+        if (lower.endsWith(".tar.gz") || lower.endsWith(".tgz")) return ArchiveType.TAR_GZ.getExtension();
         int i = name.lastIndexOf('.');
         return i > 0 ? name.substring(i + 1).toLowerCase() : "";
     }
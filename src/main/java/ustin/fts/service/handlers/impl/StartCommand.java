@@ -8,9 +8,10 @@ import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.ReplyKeyboardMarkup;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.KeyboardButton;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.KeyboardRow;
-import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 import org.telegram.telegrambots.meta.generics.TelegramClient;
 import ustin.fts.service.handlers.CommandHandler;
+import ustin.fts.service.outbound.MessageSender;
+import ustin.fts.service.outbound.Priority;
 
 import java.util.List;
 
@@ -19,43 +20,36 @@ import java.util.List;
 @RequiredArgsConstructor
 public class StartCommand implements CommandHandler {
 
-    @Override
-    public boolean canHandle(Update update) {
-        return update.hasMessage() &&
-               update.getMessage().hasText() &&
-               "/start".equals(update.getMessage().getText());
-    }
+    private final MessageSender sender;
 
     @Override
     public void execute(Update update, TelegramClient client) {
         var chatId = update.getMessage().getChatId();
         var userName = update.getMessage().getFrom().getUserName();
 
-        try {
-            var keyboard = createKeyboard();
-            var welcomeText = String.format(
-                    """
-                    Привет, %s! 👋
-                    
-                    Нажмите кнопку /fts чтобы начать загрузку файлов:
-                    • 1 файл Excel (.xlsx)
-                    • 1 файл XML (.xml)
-                    """,
-                    userName != null ? "@" + userName : "пользователь"
-            );
-
-            client.execute(SendMessage.builder()
-                    .chatId(chatId)
-                    .text(welcomeText)
-                    .replyMarkup(keyboard)
-                    .build());
+        var keyboard = createKeyboard();
+        var welcomeText = String.format(
+                """
+                Привет, %s! 👋
+                
+                Нажмите кнопку /fts чтобы начать загрузку файлов:
+                • 1 файл Excel (.xlsx)
+                • 1 файл XML (.xml)
+                """,
+                userName != null ? "@" + userName : "пользователь"
+        );
 
-            log.info("Start command executed for chat: {}", chatId);
+        sender.send(chatId, SendMessage.builder()
+                        .chatId(chatId)
+                        .text(welcomeText)
+                        .replyMarkup(keyboard)
+                        .build(), Priority.REPLY)
+                .exceptionally(e -> {
+                    sendErrorMessage(chatId);
+                    return null;
+                });
 
-        } catch (TelegramApiException e) {
-            log.error("Failed to execute start command for chat: {}", chatId, e);
-            sendErrorMessage(chatId, client);
-        }
+        log.info("Start command executed for chat: {}", chatId);
     }
 
     /**
@@ -78,15 +72,8 @@ public class StartCommand implements CommandHandler {
     /**
      * Отправляет сообщение об ошибке
      */
-    private void sendErrorMessage(Long chatId, TelegramClient client) {
-        try {
-            client.execute(SendMessage.builder()
-                    .chatId(chatId)
-                    .text("❌ Произошла ошибка. Попробуйте позже.")
-                    .build());
-        } catch (TelegramApiException ex) {
-            log.error("Failed to send error message to chat: {}", chatId, ex);
-        }
+    private void sendErrorMessage(Long chatId) {
+        sender.text(chatId, "❌ Произошла ошибка. Попробуйте позже.");
     }
 
     @Override
@@ -0,0 +1,48 @@
+package ustin.fts.service.handlers.impl;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.generics.TelegramClient;
+import ustin.fts.service.handlers.CommandHandler;
+import ustin.fts.service.jobs.Job;
+import ustin.fts.service.jobs.JobScheduler;
+import ustin.fts.service.outbound.MessageSender;
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class StatusCommand implements CommandHandler {
+
+    private final JobScheduler jobs;
+    private final MessageSender sender;
+
+    @Override
+    public void execute(Update update, TelegramClient client) {
+        var chatId = update.getMessage().getChatId();
+        var active = jobs.active(chatId);
+
+        if (active.isEmpty()) {
+            sender.text(chatId, "📭 Нет активных задач");
+            return;
+        }
+
+        var sb = new StringBuilder("📋 Задачи:");
+        for (var job : active) {
+            sb.append("\n• #").append(job.getId()).append(": ");
+            if (job.getState() == Job.State.QUEUED) {
+                sb.append("в очереди, позиция ").append(jobs.position(job));
+            } else {
+                sb.append("выполняется");
+            }
+            sb.append(" (объем: ").append(job.getWeight()).append(")");
+        }
+        sender.text(chatId, sb.toString());
+    }
+
+    @Override
+    public String getCommandName() {
+        return "/status";
+    }
+}
@@ -0,0 +1,57 @@
+package ustin.fts.service.jobs;
+
+import lombok.Getter;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Задача обработки пакета файлов одного чата
+ */
+@Getter
+public class Job {
+
+    public enum State {
+        QUEUED,
+        RUNNING,
+        DONE,
+        FAILED,
+        CANCELLED
+    }
+
+    private final long id;
+    private final long chatId;
+    private final int weight;          // Оценка объема работы (число файлов)
+    private final long submittedAt;
+    private volatile State state = State.QUEUED;
+    private volatile boolean cancelRequested;
+
+    Job(long id, long chatId, int weight, long submittedAt) {
+        this.id = id;
+        this.chatId = chatId;
+        this.weight = weight;
+        this.submittedAt = submittedAt;
+    }
+
+    /**
+     * Точка отмены: вызывается между этапами обработки
+     *
+     * @throws CancellationException если задачу отменили
+     */
+    public void checkCancelled() {
+        if (cancelRequested) {
+            throw new CancellationException("задача #" + id + " отменена");
+        }
+    }
+
+    public boolean isFinished() {
+        return state == State.DONE || state == State.FAILED || state == State.CANCELLED;
+    }
+
+    void requestCancel() {
+        cancelRequested = true;
+    }
+
+    void setState(State state) {
+        this.state = state;
+    }
+}
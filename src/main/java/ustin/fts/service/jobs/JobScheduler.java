@@ -0,0 +1,264 @@
+package ustin.fts.service.jobs;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import ustin.fts.service.SessionClosedEvent;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Ограниченная очередь задач /process с фиксированным числом исполнителей.
+ * <p>
+ * Порядок - "сначала короткие" со старением: стоимость задачи равна ее весу
+ * за вычетом одной единицы за каждые fts.jobs.aging-ms ожидания, поэтому задача
+ * из одного файла не ждет пакет из тысячи, а большой пакет все равно дождется очереди.
+ * У одного чата не больше fts.jobs.per-chat задач, в очереди не больше
+ * fts.jobs.queue-capacity. Отмена кооперативная, через {@link Job#checkCancelled()}.
+ */
+@Slf4j
+@Component
+public class JobScheduler {
+
+    private final int workers;
+    private final int queueCapacity;
+    private final int perChat;
+    private final long agingMs;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final List<Entry> queue = new ArrayList<>();
+    private final Map<Long, Job> jobs = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+    private final List<Thread> threads = new ArrayList<>();
+
+    @FunctionalInterface
+    public interface Task {
+        void run(Job job) throws Exception;
+    }
+
+    private record Entry(Job job, Task task, Runnable onFinish) {
+    }
+
+    /**
+     * Результат постановки в очередь
+     *
+     * @param position 0 - задача уже выполняется, иначе номер в очереди
+     */
+    public record Submission(Job job, int position) {
+    }
+
+    public JobScheduler(@Value("${fts.jobs.workers:2}") int workers,
+                        @Value("${fts.jobs.queue-capacity:50}") int queueCapacity,
+                        @Value("${fts.jobs.per-chat:1}") int perChat,
+                        @Value("${fts.jobs.aging-ms:100}") long agingMs) {
+        this.workers = Math.max(1, workers);
+        this.queueCapacity = queueCapacity;
+        this.perChat = Math.max(1, perChat);
+        this.agingMs = Math.max(1, agingMs);
+    }
+
+    @PostConstruct
+    public void start() {
+        for (int i = 0; i < workers; i++) {
+            threads.add(Thread.ofVirtual().name("job-worker-" + i).start(this::work));
+        }
+        log.info("Job scheduler started: {} workers, queue {}", workers, queueCapacity);
+    }
+
+    @PreDestroy
+    public void stop() {
+        threads.forEach(Thread::interrupt);
+    }
+
+    /**
+     * Поставить задачу в очередь
+     *
+     * @throws RejectedException если очередь заполнена или у чата уже есть задачи
+     */
+    public Submission submit(long chatId, int weight, Task task) {
+        return submit(chatId, weight, task, () -> {
+        });
+    }
+
+    /**
+     * Поставить задачу в очередь
+     *
+     * @param onFinish вызывается один раз, когда задача завершена, упала или отменена
+     * @throws RejectedException если очередь заполнена или у чата уже есть задачи
+     */
+    public Submission submit(long chatId, int weight, Task task, Runnable onFinish) {
+        lock.lock();
+        try {
+            var active = active(chatId);
+            if (active.size() >= perChat) {
+                throw new RejectedException("задача #" + active.getFirst().getId() + " еще выполняется, дождитесь ее или /cancel");
+            }
+            if (queue.size() >= queueCapacity) {
+                throw new RejectedException("очередь заполнена (" + queue.size() + " задач), попробуйте позже");
+            }
+
+            var job = new Job(ids.incrementAndGet(), chatId, Math.max(1, weight), System.currentTimeMillis());
+            queue.add(new Entry(job, task, onFinish));
+            jobs.put(job.getId(), job);
+            available.signal();
+            log.info("Job {} queued for chat {} (weight {})", job.getId(), chatId, weight);
+            return new Submission(job, position(job));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Отменить задачи чата: ожидающие удаляются из очереди,
+     * выполняющиеся остановятся в ближайшей точке отмены
+     */
+    public void cancel(long chatId) {
+        lock.lock();
+        try {
+            queue.removeIf(entry -> {
+                if (entry.job().getChatId() != chatId) return false;
+                entry.job().requestCancel();
+                finish(entry, Job.State.CANCELLED);
+                return true;
+            });
+            for (var job : jobs.values()) {
+                if (job.getChatId() == chatId && !job.isFinished()) {
+                    job.requestCancel();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Незавершенные задачи чата
+     */
+    public List<Job> active(long chatId) {
+        return jobs.values().stream()
+                .filter(job -> job.getChatId() == chatId && !job.isFinished())
+                .sorted(Comparator.comparingLong(Job::getId))
+                .toList();
+    }
+
+    /**
+     * Позиция задачи в очереди с учетом текущих стоимостей, 0 - задача не в очереди
+     */
+    public int position(Job job) {
+        lock.lock();
+        try {
+            if (job.getState() != Job.State.QUEUED) return 0;
+            var now = System.currentTimeMillis();
+            var cost = cost(job, now);
+            int position = 1;
+            for (var entry : queue) {
+                var other = entry.job();
+                if (other != job && (cost(other, now) < cost || cost(other, now) == cost && other.getId() < job.getId())) {
+                    position++;
+                }
+            }
+            return position;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueueSize() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getRunningCount() {
+        return jobs.values().stream().filter(job -> job.getState() == Job.State.RUNNING).count();
+    }
+
+    @EventListener
+    public void onSessionClosed(SessionClosedEvent event) {
+        cancel(event.chatId());
+    }
+
+    private void work() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Entry entry;
+            try {
+                entry = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            var job = entry.job();
+            try {
+                job.checkCancelled();
+                entry.task().run(job);
+                finish(entry, Job.State.DONE);
+            } catch (CancellationException e) {
+                log.info("Job {} cancelled", job.getId());
+                finish(entry, Job.State.CANCELLED);
+            } catch (Exception e) {
+                log.error("Job {} failed", job.getId(), e);
+                finish(entry, Job.State.FAILED);
+            }
+        }
+    }
+
+    private Entry take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (queue.isEmpty()) {
+                available.await();
+            }
+            var now = System.currentTimeMillis();
+            var next = queue.getFirst();
+            for (var entry : queue) {
+                if (cost(entry.job(), now) < cost(next.job(), now)) {
+                    next = entry;
+                }
+            }
+            queue.remove(next);
+            next.job().setState(Job.State.RUNNING);
+            return next;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long cost(Job job, long now) {
+        return job.getWeight() - (now - job.getSubmittedAt()) / agingMs;
+    }
+
+    private void finish(Entry entry, Job.State state) {
+        var job = entry.job();
+        job.setState(state);
+        jobs.remove(job.getId());
+        try {
+            entry.onFinish().run();
+        } catch (RuntimeException e) {
+            log.error("Job {} completion callback failed", job.getId(), e);
+        }
+    }
+
+    /**
+     * Задача не принята в очередь
+     */
+    public static class RejectedException extends RuntimeException {
+        public RejectedException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package ustin.fts.service.outbound;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.methods.send.SendDocument;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.message.Message;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+import org.telegram.telegrambots.meta.generics.TelegramClient;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Единая очередь исходящих сообщений.
+ * <p>
+ * Обработчики только ставят сообщение в очередь и не ждут сети. Отправка идет
+ * через executeAsync с общим лимитом (fts.outbound.global-rate) и лимитом на чат
+ * (fts.outbound.chat-rate). Ответ 429 откладывает сообщения чата на retry_after,
+ * при нехватке лимита первыми уходят сообщения с более высоким {@link Priority}.
+ * <p>
+ * Сообщения одного чата уходят строго по очереди: в общей очереди стоит только
+ * первое из них, следующее встает туда после ответа на предыдущее. Поэтому пауза
+ * по лимиту или 429 задерживает весь чат, а не переставляет его сообщения.
+ * Состояние чата меняется только под блокировкой его ключа в {@link #chats}.
+ */
+@Slf4j
+@Component
+public class MessageSender {
+
+    private final TelegramClient client;
+    private final MeterRegistry registry;
+    private final double chatRate;
+    private final int chatBurst;
+    private final int maxAttempts;
+    private final TokenBucket global;
+    private final Map<Long, ChatQueue> chats = new ConcurrentHashMap<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    // Первые сообщения чатов, готовые к отправке
+    private final PriorityBlockingQueue<Outgoing> queue = new PriorityBlockingQueue<>(64,
+            Comparator.comparing(Outgoing::priority).thenComparingLong(Outgoing::seq));
+    private final ScheduledExecutorService delayed = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofVirtual().name("outbound-delay").factory());
+    private final AtomicLong sequence = new AtomicLong();
+    private Thread worker;
+
+    @FunctionalInterface
+    public interface Call {
+        CompletableFuture<?> execute(TelegramClient client) throws Exception;
+    }
+
+    private record Outgoing(long chatId, Priority priority, long seq, Call call,
+                            CompletableFuture<Object> result, int attempt) {
+        Outgoing retry() {
+            return new Outgoing(chatId, priority, seq, call, result, attempt + 1);
+        }
+    }
+
+    private static final class ChatQueue {
+        final TokenBucket bucket;
+        final ArrayDeque<Outgoing> pending = new ArrayDeque<>();   // Первое - отправляется или ждет лимита
+        volatile long blockedUntil;   // System.nanoTime(), до которого чат на паузе после 429
+
+        ChatQueue(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+    }
+
+    public MessageSender(TelegramClient client,
+                         MeterRegistry registry,
+                         @Value("${fts.outbound.global-rate:25}") double globalRate,
+                         @Value("${fts.outbound.chat-rate:1}") double chatRate,
+                         @Value("${fts.outbound.chat-burst:3}") int chatBurst,
+                         @Value("${fts.outbound.max-attempts:5}") int maxAttempts) {
+        this.client = client;
+        this.registry = registry;
+        this.chatRate = chatRate;
+        this.chatBurst = chatBurst;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.global = new TokenBucket(globalRate, (int) Math.ceil(globalRate), System.nanoTime());
+    }
+
+    @PostConstruct
+    public void start() {
+        worker = Thread.ofVirtual().name("outbound").start(this::run);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (worker != null) worker.interrupt();
+        delayed.shutdownNow();
+    }
+
+    /**
+     * Текстовое сообщение с приоритетом ответа
+     */
+    public CompletableFuture<Object> text(long chatId, String text) {
+        return text(chatId, text, Priority.REPLY);
+    }
+
+    public CompletableFuture<Object> text(long chatId, String text, Priority priority) {
+        return send(chatId, SendMessage.builder().chatId(chatId).text(text).build(), priority);
+    }
+
+    public CompletableFuture<Object> send(long chatId, SendMessage message, Priority priority) {
+        return submit(chatId, priority, c -> c.executeAsync(message));
+    }
+
+    /**
+     * Документ с результатом. Файл должен существовать, пока future не завершится
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<Message> document(long chatId, SendDocument document) {
+        return (CompletableFuture<Message>) (CompletableFuture<?>)
+                submit(chatId, Priority.RESULT, c -> c.executeAsync(document));
+    }
+
+    /**
+     * Поставить произвольный вызов API в очередь
+     */
+    public CompletableFuture<Object> submit(long chatId, Priority priority, Call call) {
+        var result = new CompletableFuture<Object>();
+        var item = new Outgoing(chatId, priority, sequence.incrementAndGet(), call, result, 1);
+        queued.incrementAndGet();
+        chats.compute(chatId, (id, chat) -> {
+            if (chat == null) {
+                chat = new ChatQueue(new TokenBucket(chatRate, chatBurst, System.nanoTime()));
+            }
+            chat.pending.add(item);
+            if (chat.pending.size() == 1) {
+                queue.add(item);
+            }
+            return chat;
+        });
+        return result;
+    }
+
+    public int getQueueSize() {
+        return queued.get();
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                var item = queue.take();
+                var now = System.nanoTime();
+                // Чат не вытесняется, пока в нем есть сообщения: его первое сообщение - это item
+                var chat = chats.get(item.chatId());
+
+                // Лимит чата: откладываем весь чат, остальные идут дальше
+                var wait = Math.max(chat.blockedUntil - now, 0);
+                if (wait == 0) {
+                    wait = chat.bucket.tryAcquire(now);
+                }
+                if (wait > 0) {
+                    later(item, wait);
+                    continue;
+                }
+
+                // Общий лимит: ждем маркер, он нужен любому следующему сообщению
+                long globalWait;
+                while ((globalWait = global.tryAcquire(System.nanoTime())) > 0) {
+                    TimeUnit.NANOSECONDS.sleep(globalWait);
+                }
+                execute(item);
+
+                if (chats.size() > 10_000) {
+                    evictIdle(now);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                log.error("Outbound dispatcher error", e);
+            }
+        }
+    }
+
+    private void execute(Outgoing item) {
+        var sample = Timer.start();
+        CompletableFuture<?> call;
+        try {
+            call = item.call().execute(client);
+        } catch (Exception e) {
+            call = CompletableFuture.failedFuture(e);
+        }
+        call.whenComplete((response, e) -> {
+            sample.stop(Timer.builder("fts.outbound.send")
+                    .description("Вызов API Telegram для исходящего сообщения")
+                    .tag("priority", item.priority().name().toLowerCase())
+                    .tag("outcome", e == null ? "ok" : "error")
+                    .publishPercentileHistogram()
+                    .register(registry));
+            if (e == null) {
+                next(item);
+                item.result().complete(response);
+                return;
+            }
+            var cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            var retryAfter = retryAfterSeconds(cause);
+            if (retryAfter > 0 && item.attempt() < maxAttempts) {
+                var delay = TimeUnit.SECONDS.toNanos(retryAfter);
+                log.warn("Rate limited in chat {}, retry in {} s", item.chatId(), retryAfter);
+                blockAndRetry(item, delay);
+                return;
+            }
+            log.error("Failed to send to chat {}", item.chatId(), cause);
+            next(item);
+            item.result().completeExceptionally(cause);
+        });
+    }
+
+    /**
+     * Сообщение отправлено или окончательно не удалось: в очередь встает следующее сообщение чата
+     */
+    private void next(Outgoing done) {
+        queued.decrementAndGet();
+        chats.computeIfPresent(done.chatId(), (id, chat) -> {
+            chat.pending.poll();
+            var following = chat.pending.peek();
+            if (following != null) {
+                queue.add(following);
+            }
+            return chat;
+        });
+    }
+
+    /**
+     * Ответ 429: чат на паузе, повтор остается первым в очереди чата
+     */
+    private void blockAndRetry(Outgoing item, long delayNanos) {
+        var retry = item.retry();
+        chats.computeIfPresent(item.chatId(), (id, chat) -> {
+            chat.blockedUntil = System.nanoTime() + delayNanos;
+            chat.pending.poll();
+            chat.pending.addFirst(retry);
+            return chat;
+        });
+        later(retry, delayNanos);
+    }
+
+    /**
+     * Вытеснить чаты без сообщений и ограничений. Проверка идет под блокировкой ключа,
+     * поэтому не теряет ни новое сообщение, ни паузу после 429
+     */
+    private void evictIdle(long now) {
+        for (var chatId : chats.keySet()) {
+            chats.computeIfPresent(chatId, (id, chat) ->
+                    chat.pending.isEmpty() && chat.blockedUntil <= now && chat.bucket.isIdle(now) ? null : chat);
+        }
+    }
+
+    private void later(Outgoing item, long delayNanos) {
+        delayed.schedule(() -> queue.add(item), delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private long retryAfterSeconds(Throwable e) {
+        if (e instanceof TelegramApiRequestException request
+            && request.getParameters() != null
+            && request.getParameters().getRetryAfter() != null) {
+            return request.getParameters().getRetryAfter();
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,10 @@
+package ustin.fts.service.outbound;
+
+/**
+ * Приоритет исходящего сообщения: при нехватке лимита первыми уходят результаты
+ */
+public enum Priority {
+    RESULT,     // Результат обработки и итоговые сообщения
+    REPLY,      // Ответы на команды
+    PROGRESS    // Промежуточные статусы
+}
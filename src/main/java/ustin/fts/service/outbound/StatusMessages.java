@@ -0,0 +1,121 @@
+package ustin.fts.service.outbound;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.methods.updatingmessages.EditMessageText;
+import org.telegram.telegrambots.meta.api.objects.message.Message;
+import ustin.fts.service.SessionClosedEvent;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Одно "живое" статусное сообщение на чат.
+ * <p>
+ * Подтверждения загрузки и прогресс обработки не отправляются отдельными сообщениями:
+ * последний текст показывается не чаще раза в fts.status.debounce-ms, первое обновление
+ * создает сообщение, следующие редактируют его через EditMessageText. Пачка файлов
+ * или media group, пришедшая за время задержки, дает один вызов API.
+ */
+@Slf4j
+@Component
+public class StatusMessages {
+
+    private final MessageSender sender;
+    private final long debounceMs;
+    private final Map<Long, Status> statuses = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofVirtual().name("status-debounce").factory());
+
+    private static final class Status {
+        final long chatId;
+        String text;                          // Последний запрошенный текст
+        String shown;                         // Текст, уже отправленный в Telegram
+        boolean scheduled;
+        CompletableFuture<Integer> messageId; // id статусного сообщения, null до первой отправки
+
+        Status(long chatId) {
+            this.chatId = chatId;
+        }
+    }
+
+    public StatusMessages(MessageSender sender,
+                          @Value("${fts.status.debounce-ms:1000}") long debounceMs) {
+        this.sender = sender;
+        this.debounceMs = debounceMs;
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Показать текст в статусном сообщении чата (с задержкой, промежуточные тексты теряются)
+     */
+    public void show(long chatId, String text) {
+        var status = statuses.computeIfAbsent(chatId, Status::new);
+        synchronized (status) {
+            status.text = text;
+            if (!status.scheduled) {
+                status.scheduled = true;
+                scheduler.schedule(() -> flush(status), debounceMs, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Показать итоговый текст сразу и закончить статус:
+     * следующее обновление создаст новое сообщение
+     */
+    public void complete(long chatId, String text) {
+        var status = statuses.remove(chatId);
+        if (status == null) {
+            status = new Status(chatId);
+        }
+        synchronized (status) {
+            status.text = text;
+            flush(status);
+            // Отложенная отправка уже не найдет этот статус в таблице и ничего не изменит
+            status.shown = text;
+        }
+    }
+
+    @EventListener
+    public void onSessionClosed(SessionClosedEvent event) {
+        statuses.remove(event.chatId());
+    }
+
+    private void flush(Status status) {
+        synchronized (status) {
+            status.scheduled = false;
+            var text = status.text;
+            if (text == null || text.equals(status.shown)) return;
+            status.shown = text;
+
+            var chatId = status.chatId;
+            if (status.messageId == null || status.messageId.isCompletedExceptionally()) {
+                status.messageId = sender.send(chatId, SendMessage.builder().chatId(chatId).text(text).build(),
+                                Priority.PROGRESS)
+                        .thenApply(message -> ((Message) message).getMessageId());
+                return;
+            }
+            status.messageId = status.messageId.thenCompose(id -> sender.submit(chatId, Priority.PROGRESS,
+                            c -> c.executeAsync(EditMessageText.builder()
+                                    .chatId(chatId)
+                                    .messageId(id)
+                                    .text(text)
+                                    .build()))
+                    // Неудачная правка не должна терять id сообщения
+                    .handle((result, e) -> id));
+        }
+    }
+}
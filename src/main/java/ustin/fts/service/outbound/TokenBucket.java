@@ -0,0 +1,46 @@
+package ustin.fts.service.outbound;
+
+/**
+ * Маркерная корзина: ratePerSecond маркеров в секунду, не больше burst в запасе
+ */
+final class TokenBucket {
+
+    private final double ratePerNano;
+    private final double burst;
+    private double tokens;
+    private long updatedAt;
+
+    TokenBucket(double ratePerSecond, int burst, long now) {
+        this.ratePerNano = ratePerSecond / 1_000_000_000d;
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.updatedAt = now;
+    }
+
+    /**
+     * Взять маркер
+     *
+     * @return 0, если маркер взят, иначе сколько наносекунд ждать следующего
+     */
+    synchronized long tryAcquire(long now) {
+        refill(now);
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((1 - tokens) / ratePerNano));
+    }
+
+    /**
+     * Корзина полна, и состояние можно забыть
+     */
+    synchronized boolean isIdle(long now) {
+        refill(now);
+        return tokens >= burst;
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(burst, tokens + (now - updatedAt) * ratePerNano);
+        updatedAt = now;
+    }
+}
@@ -0,0 +1,31 @@
+package ustin.fts.service.processing;
+
+/**
+ * Поддерживаемые архивы с XML
+ */
+public enum ArchiveType {
+    ZIP("zip"),
+    TAR_GZ("tar.gz");
+
+    private final String extension;
+
+    ArchiveType(String extension) {
+        this.extension = extension;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * @return тип архива по расширению файла или null
+     */
+    public static ArchiveType of(String extension) {
+        for (var type : values()) {
+            if (type.extension.equals(extension)) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,76 @@
+package ustin.fts.service.processing;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ustin.fts.xml.model.DTData;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LRU-кэш разобранных деклараций по file_unique_id.
+ * <p>
+ * Повторно присланный файл не скачивается и не разбирается заново.
+ */
+@Slf4j
+@Component
+public class DtCache {
+
+    private final int maxEntries;
+    private final Map<String, DTData> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public DtCache(@Value("${fts.cache.max-entries:10000}") int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, DTData> eldest) {
+                return size() > DtCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return данные из кэша или null
+     */
+    public DTData get(String fileUniqueId) {
+        DTData data;
+        synchronized (entries) {
+            data = entries.get(fileUniqueId);
+        }
+        if (data != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return data;
+    }
+
+    public void put(String fileUniqueId, DTData data) {
+        if (maxEntries <= 0) return;
+        synchronized (entries) {
+            entries.put(fileUniqueId, data);
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+}
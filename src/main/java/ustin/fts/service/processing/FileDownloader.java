@@ -0,0 +1,214 @@
+package ustin.fts.service.processing;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.methods.GetFile;
+import org.telegram.telegrambots.meta.api.objects.File;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+import org.telegram.telegrambots.meta.generics.TelegramClient;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Скачивание файлов из Telegram через общий TelegramClient (пул соединений OkHttp).
+ * <p>
+ * Одновременно выполняется не больше fts.download.concurrency загрузок,
+ * разрешенный file_path кэшируется на время его жизни, временные ошибки
+ * (сеть, 429, 5xx) повторяются с экспоненциальной задержкой.
+ */
+@Slf4j
+@Component
+public class FileDownloader {
+
+    private final TelegramClient client;
+    private final FileStagingService staging;
+    private final Timer downloadTimer;
+    private final Semaphore permits;
+    private final int maxAttempts;
+    private final long backoffMs;
+    private final long pathTtlMs;
+    private final Map<String, CachedFile> paths = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private record CachedFile(File file, long expiresAt) {
+    }
+
+    public FileDownloader(TelegramClient client,
+                          FileStagingService staging,
+                          MeterRegistry registry,
+                          @Value("${fts.download.concurrency:8}") int concurrency,
+                          @Value("${fts.download.max-attempts:3}") int maxAttempts,
+                          @Value("${fts.download.backoff-ms:500}") long backoffMs,
+                          @Value("${fts.download.path-ttl-minutes:50}") long pathTtlMinutes) {
+        this.client = client;
+        this.staging = staging;
+        this.downloadTimer = Timer.builder("fts.download")
+                .description("Скачивание файла с повторами")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.permits = new Semaphore(concurrency);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffMs = backoffMs;
+        this.pathTtlMs = Duration.ofMinutes(pathTtlMinutes).toMillis();
+    }
+
+    /**
+     * Скачать файл в фоне во временное хранилище чата.
+     * Полученный {@link StagedFile} нужно закрыть после разбора. Отмена задачи
+     * прерывает загрузку, а файл, сохраненный уже после отмены, сразу закрывается
+     *
+     * @param toDisk сохранить на диск независимо от размера
+     */
+    public CompletableFuture<StagedFile> fetch(long chatId, String fileId, boolean toDisk) {
+        var task = new CompletableFuture<StagedFile>();
+        var worker = executor.submit(() -> {
+            try {
+                var staged = stage(chatId, fileId, toDisk);
+                if (!task.complete(staged)) staged.close();
+            } catch (FileStagingService.QuotaExceededException e) {
+                task.completeExceptionally(e);
+            } catch (Exception e) {
+                task.completeExceptionally(new DownloadException(fileId, e));
+            }
+        });
+        task.whenComplete((staged, e) -> {
+            if (task.isCancelled()) worker.cancel(true);
+        });
+        return task;
+    }
+
+    /**
+     * Скачать файл во временное хранилище чата в текущем потоке
+     *
+     * @param toDisk сохранить на диск независимо от размера
+     */
+    public StagedFile stage(long chatId, String fileId, boolean toDisk) throws Exception {
+        var sample = Timer.start();
+        try {
+            return withRetry(fileId, () -> {
+                try (var in = openOnce(fileId)) {
+                    return staging.stage(chatId, in, toDisk);
+                }
+            });
+        } finally {
+            sample.stop(downloadTimer);
+        }
+    }
+
+    /**
+     * Слот загрузки занят, пока поток не закрыт: вызывающий закрывает его сразу после сохранения
+     */
+    private InputStream openOnce(String fileId) throws Exception {
+        permits.acquire();
+        try {
+            return new PermitReleasingStream(client.downloadFileAsStream(resolve(fileId)));
+        } catch (Exception e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private File resolve(String fileId) throws TelegramApiException {
+        var now = System.currentTimeMillis();
+        var cached = paths.get(fileId);
+        if (cached != null && cached.expiresAt() > now) {
+            return cached.file();
+        }
+        var file = client.execute(new GetFile(fileId));
+        paths.put(fileId, new CachedFile(file, now + pathTtlMs));
+        if (paths.size() > 10_000) {
+            paths.values().removeIf(c -> c.expiresAt() <= now);
+        }
+        return file;
+    }
+
+    private <T> T withRetry(String fileId, Attempt<T> attempt) throws Exception {
+        for (int i = 1; ; i++) {
+            try {
+                return attempt.run();
+            } catch (Exception e) {
+                if (i >= maxAttempts || !isTransient(e)) throw e;
+
+                // Устаревший file_path: при следующей попытке запрашиваем заново
+                paths.remove(fileId);
+                var delay = retryAfterMs(e);
+                if (delay < 0) {
+                    delay = backoffMs << (i - 1);
+                }
+                log.warn("Download of {} failed (attempt {}/{}), retry in {} ms: {}",
+                        fileId, i, maxAttempts, delay, e.getMessage());
+                Thread.sleep(delay);
+            }
+        }
+    }
+
+    /**
+     * Повторяются только сетевые ошибки, 429 и 5xx. Ответы Telegram с кодом 4xx
+     * и прочие ошибки клиента (например, слишком большой файл) повтором не исправить
+     */
+    private boolean isTransient(Exception e) {
+        if (e instanceof TelegramApiRequestException request && request.getErrorCode() != null) {
+            var code = request.getErrorCode();
+            return code == 429 || code >= 500;
+        }
+        // Клиент оборачивает сетевые ошибки в TelegramApiException без кода
+        return e instanceof IOException
+               || e instanceof TelegramApiException && e.getCause() instanceof IOException;
+    }
+
+    private long retryAfterMs(Exception e) {
+        if (e instanceof TelegramApiRequestException request
+            && request.getParameters() != null
+            && request.getParameters().getRetryAfter() != null) {
+            return request.getParameters().getRetryAfter() * 1000L;
+        }
+        return -1;
+    }
+
+    @FunctionalInterface
+    private interface Attempt<T> {
+        T run() throws Exception;
+    }
+
+    private final class PermitReleasingStream extends FilterInputStream {
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        PermitReleasingStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed.compareAndSet(false, true)) {
+                try {
+                    super.close();
+                } finally {
+                    permits.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Файл не удалось скачать после всех попыток
+     */
+    public static class DownloadException extends RuntimeException {
+        public DownloadException(String fileId, Throwable cause) {
+            super("не удалось скачать файл: " + cause.getMessage(), cause);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package ustin.fts.service.processing;
+
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import ustin.fts.service.ReceivedFile;
+import ustin.fts.service.SessionClosedEvent;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Фоновая загрузка и разбор файлов сразу после их получения.
+ * <p>
+ * Пока пользователь досылает документы, уже принятые скачиваются и разбираются,
+ * а /process только дожидается незавершенных задач. Задачи привязаны к сессии чата
+ * по file_unique_id и отменяются при ее закрытии.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class FilePrefetcher {
+
+    private final FileDownloader downloader;
+    private final XmlParseStage parseStage;
+    private final XmlArchiveReader archiveReader;
+    private final DtCache dtCache;
+
+    private final Map<Long, Map<String, Prefetch>> sessions = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Задача сессии: загрузка файла и итоговый результат, который из нее получается.
+     * Флаг отмены проверяется между этапами и передается в разбор: отмененная задача
+     * освобождает поток разбора, не дочитывая файл
+     */
+    private record Prefetch(AtomicBoolean cancelled, CompletableFuture<StagedFile> download, CompletableFuture<?> result) {
+
+        boolean cancel() {
+            cancelled.set(true);
+            var stopped = download != null && download.cancel(true);
+            return result.cancel(false) || stopped;
+        }
+    }
+
+    /**
+     * Разобранные декларации из XML или архива. Повторный вызов для того же файла
+     * возвращает уже запущенную задачу. Задача не завершается исключением:
+     * ошибки попадают в {@link ParseResult}
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<List<ParseResult>> declarations(long chatId, ReceivedFile file, String name) {
+        return (CompletableFuture<List<ParseResult>>) session(chatId)
+                .computeIfAbsent(file.fileUniqueId(), key -> startDeclarations(chatId, file, name))
+                .result();
+    }
+
+    /**
+     * Реестр XLSX, сохраненный на диск. Закрывает полученный {@link StagedFile} вызывающий
+     */
+    public CompletableFuture<StagedFile> registry(long chatId, ReceivedFile file) {
+        return registryTask(chatId, file).download();
+    }
+
+    /**
+     * Забрать реестр из сессии: файл закрывается после обработки,
+     * и повторный /process скачает его заново
+     */
+    public CompletableFuture<StagedFile> takeRegistry(long chatId, ReceivedFile file) {
+        var task = registryTask(chatId, file);
+        session(chatId).remove(file.fileUniqueId(), task);
+        return task.download();
+    }
+
+    /**
+     * Забыть задачи обработанных файлов, не трогая файлы, присланные позже
+     */
+    public void forget(long chatId, Collection<ReceivedFile> files) {
+        var session = sessions.get(chatId);
+        if (session == null) return;
+        for (var file : files) {
+            var task = session.remove(file.fileUniqueId());
+            if (task != null) {
+                task.cancel();
+            }
+        }
+    }
+
+    /**
+     * Отменить незавершенные задачи чата вместе с загрузками и разбором
+     */
+    @EventListener
+    public void onSessionClosed(SessionClosedEvent event) {
+        var tasks = sessions.remove(event.chatId());
+        if (tasks == null) return;
+        for (var task : tasks.values()) {
+            if (!task.cancel()) continue;
+            log.debug("Cancelled prefetch for chat {}", event.chatId());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private Map<String, Prefetch> session(long chatId) {
+        return sessions.computeIfAbsent(chatId, id -> new ConcurrentHashMap<>());
+    }
+
+    private Prefetch registryTask(long chatId, ReceivedFile file) {
+        return session(chatId).computeIfAbsent(file.fileUniqueId(), key -> {
+            var download = downloader.fetch(chatId, file.fileId(), true);
+            return new Prefetch(new AtomicBoolean(), download, download);
+        });
+    }
+
+    private Prefetch startDeclarations(long chatId, ReceivedFile file, String name) {
+        var cancelled = new AtomicBoolean();
+        var archive = ArchiveType.of(file.type());
+        if (archive != null) {
+            // Архив сначала сохраняется целиком: слот загрузки освобождается до начала разбора
+            var download = downloader.fetch(chatId, file.fileId(), false);
+            var result = download
+                    .thenApplyAsync(staged -> {
+                        try (staged; var in = staged.openStream()) {
+                            return archiveReader.parseArchive(chatId, name, archive, in, cancelled::get);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }, executor)
+                    .exceptionally(e -> failed(name, e));
+            return new Prefetch(cancelled, download, result);
+        }
+
+        var cached = dtCache.get(file.fileUniqueId());
+        if (cached != null) {
+            return new Prefetch(cancelled, null, CompletableFuture.completedFuture(List.of(ParseResult.ok(name, cached))));
+        }
+        var download = downloader.fetch(chatId, file.fileId(), false);
+        var result = download
+                .thenCompose(staged -> {
+                    // Сессия закрыта, пока файл скачивался
+                    if (cancelled.get()) {
+                        staged.close();
+                        return CompletableFuture.<ParseResult>failedFuture(new CancellationException());
+                    }
+                    return parseStage.submit(new XmlSource(name, staged::openStream, cancelled::get))
+                            .whenComplete((r, e) -> staged.close());
+                })
+                .thenApply(parsed -> {
+                    // Результат отмененной задачи в кэш не попадает
+                    if (parsed.isOk() && !cancelled.get()) {
+                        dtCache.put(file.fileUniqueId(), parsed.data());
+                    }
+                    return List.of(parsed);
+                })
+                .exceptionally(e -> failed(name, e));
+        return new Prefetch(cancelled, download, result);
+    }
+
+    private List<ParseResult> failed(String name, Throwable e) {
+        var cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof CancellationException) {
+            log.debug("Prefetch of {} cancelled", name);
+        } else {
+            log.warn("Failed to process {}", name, cause);
+        }
+        return List.of(ParseResult.failed(name, cause));
+    }
+}
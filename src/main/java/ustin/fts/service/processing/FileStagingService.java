@@ -0,0 +1,202 @@
+package ustin.fts.service.processing;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+import ustin.fts.service.SessionClosedEvent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Промежуточное хранение скачанных файлов.
+ * <p>
+ * Файлы до fts.staging.memory-threshold-bytes держатся в буферах из пула,
+ * крупные сбрасываются во временный каталог и читаются через отображение в память.
+ * Буферов в памяти не больше fts.staging.buffer-pool-size: когда все заняты,
+ * файл сразу пишется на диск. Файл в памяти расходует квоту на весь размер буфера,
+ * файл на диске - на фактический объем.
+ * Объем ограничен квотой на чат и общей квотой процесса, поэтому куча не растет
+ * от числа одновременно загружающих пользователей. Файлы чата удаляются
+ * при завершении его сессии.
+ */
+@Slf4j
+@Component
+public class FileStagingService {
+
+    private final int memoryThreshold;
+    private final long chatBudget;
+    private final long globalBudget;
+    private final Path directory;
+    private final int bufferPoolSize;
+    private final BlockingQueue<byte[]> bufferPool;
+    private final AtomicInteger allocatedBuffers = new AtomicInteger();
+    private final AtomicLong globalUsed = new AtomicLong();
+    private final Map<Long, ChatUsage> chats = new ConcurrentHashMap<>();
+
+    private static final class ChatUsage {
+        final AtomicLong bytes = new AtomicLong();
+        final Set<StagedFile> files = ConcurrentHashMap.newKeySet();
+    }
+
+    public FileStagingService(@Value("${fts.staging.memory-threshold-bytes:1048576}") int memoryThreshold,
+                              @Value("${fts.staging.buffer-pool-size:32}") int bufferPoolSize,
+                              @Value("${fts.staging.chat-budget-bytes:536870912}") long chatBudget,
+                              @Value("${fts.staging.global-budget-bytes:2147483648}") long globalBudget,
+                              @Value("${fts.staging.directory:${java.io.tmpdir}/fts-staging}") Path directory) {
+        this.memoryThreshold = memoryThreshold;
+        this.chatBudget = chatBudget;
+        this.globalBudget = globalBudget;
+        this.directory = directory;
+        this.bufferPoolSize = Math.max(0, bufferPoolSize);
+        this.bufferPool = new ArrayBlockingQueue<>(Math.max(1, bufferPoolSize));
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        // Файлы, оставшиеся от предыдущего запуска, никому не принадлежат
+        FileSystemUtils.deleteRecursively(directory);
+        Files.createDirectories(directory);
+        log.info("File staging: {} (in memory up to {} bytes)", directory, memoryThreshold);
+    }
+
+    /**
+     * Сохранить содержимое потока. Поток читается до конца, но не закрывается
+     *
+     * @param toDisk сразу писать на диск (например, XLSX, который открывается по пути)
+     * @throws QuotaExceededException если превышена квота чата или процесса
+     */
+    public StagedFile stage(long chatId, InputStream in, boolean toDisk) throws IOException {
+        var usage = chats.computeIfAbsent(chatId, id -> new ChatUsage());
+        long reserved = 0;
+        byte[] buffer = toDisk ? null : borrow();
+        Path path = null;
+        try {
+            int filled = 0;
+            if (buffer != null) {
+                // Буфер занят целиком, сколько бы байт в нем ни оказалось
+                reserve(usage, buffer.length);
+                reserved = buffer.length;
+                int n;
+                while (filled < buffer.length && (n = in.read(buffer, filled, buffer.length - filled)) != -1) {
+                    filled += n;
+                }
+                if (filled < buffer.length) {
+                    return register(usage, new StagedFile(chatId, filled, reserved, buffer, null, this));
+                }
+            }
+
+            // Файл больше порога или свободных буферов нет: все, что уже прочитано, и остаток идут на диск.
+            // Заполненный буфер уже учтен в квоте ровно на прочитанный объем
+            path = Files.createTempFile(directory, "chat" + chatId + "-", ".bin");
+            try (var out = Files.newOutputStream(path)) {
+                if (buffer != null) {
+                    out.write(buffer, 0, filled);
+                    giveBack(buffer);
+                    buffer = null;
+                }
+                var chunk = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(chunk)) != -1) {
+                    reserve(usage, n);
+                    reserved += n;
+                    out.write(chunk, 0, n);
+                }
+            }
+            return register(usage, new StagedFile(chatId, reserved, reserved, null, path, this));
+        } catch (IOException | RuntimeException e) {
+            unreserve(usage, reserved);
+            if (buffer != null) giveBack(buffer);
+            if (path != null) Files.deleteIfExists(path);
+            throw e;
+        }
+    }
+
+    /**
+     * Освободить все файлы чата. Файлы, которые еще читаются, только помечаются:
+     * буфер и квота освобождаются, когда закроется последний поток чтения
+     */
+    @EventListener
+    public void onSessionClosed(SessionClosedEvent event) {
+        var usage = chats.remove(event.chatId());
+        if (usage == null) return;
+        usage.files.forEach(StagedFile::close);
+        log.debug("Released staged files of chat {}", event.chatId());
+    }
+
+    public long getGlobalUsed() {
+        return globalUsed.get();
+    }
+
+    void release(StagedFile file, byte[] buffer) {
+        var usage = chats.get(file.chatId());
+        // Файл, отложенный при закрытии сессии, не относится к квоте новой сессии чата
+        if (usage != null && usage.files.remove(file)) {
+            usage.bytes.addAndGet(-file.charged());
+        }
+        globalUsed.addAndGet(-file.charged());
+        if (buffer != null) {
+            giveBack(buffer);
+        }
+    }
+
+    private StagedFile register(ChatUsage usage, StagedFile file) {
+        usage.files.add(file);
+        return file;
+    }
+
+    private void reserve(ChatUsage usage, long bytes) {
+        if (usage.bytes.addAndGet(bytes) > chatBudget) {
+            usage.bytes.addAndGet(-bytes);
+            throw new QuotaExceededException("превышен лимит объема файлов для чата");
+        }
+        if (globalUsed.addAndGet(bytes) > globalBudget) {
+            globalUsed.addAndGet(-bytes);
+            usage.bytes.addAndGet(-bytes);
+            throw new QuotaExceededException("сервер перегружен, попробуйте позже");
+        }
+    }
+
+    private void unreserve(ChatUsage usage, long bytes) {
+        usage.bytes.addAndGet(-bytes);
+        globalUsed.addAndGet(-bytes);
+    }
+
+    /**
+     * @return буфер из пула, новый буфер, пока их меньше размера пула, или null - файл пойдет на диск
+     */
+    private byte[] borrow() {
+        var buffer = bufferPool.poll();
+        if (buffer != null) return buffer;
+        if (allocatedBuffers.incrementAndGet() <= bufferPoolSize) {
+            return new byte[memoryThreshold];
+        }
+        allocatedBuffers.decrementAndGet();
+        return null;
+    }
+
+    private void giveBack(byte[] buffer) {
+        bufferPool.offer(buffer);
+    }
+
+    /**
+     * Квота на объем промежуточных файлов исчерпана
+     */
+    public static class QuotaExceededException extends RuntimeException {
+        public QuotaExceededException(String message) {
+            super(message);
+        }
+    }
+}
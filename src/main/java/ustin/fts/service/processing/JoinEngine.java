@@ -0,0 +1,152 @@
+package ustin.fts.service.processing;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.ss.util.CellReference;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ustin.fts.xlsx.model.XlsxRow;
+import ustin.fts.xml.model.DTData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Hash join строк реестра с декларациями по номеру и дате документа.
+ * <p>
+ * Индекс строится по декларациям (их сотни-тысячи, а строк реестра - до сотен тысяч),
+ * строки листа проходят один раз потоком, каждая проверяется одним поиском в HashMap.
+ */
+@Slf4j
+@Component
+public class JoinEngine {
+
+    private static final int MAX_UNMATCHED_ROWS = 1000;
+
+    /**
+     * Получатель результата по каждой строке
+     */
+    public interface Sink {
+        default void header(XlsxRow header) {
+        }
+
+        void row(XlsxRow row, List<DTData> matches);
+    }
+
+    private final String numberColumn;
+    private final String dateColumn;
+    private final boolean hasHeader;
+
+    public JoinEngine(@Value("${fts.join.number-column:Номер документа}") String numberColumn,
+                      @Value("${fts.join.date-column:Дата документа}") String dateColumn,
+                      @Value("${fts.join.header:true}") boolean hasHeader) {
+        this.numberColumn = numberColumn;
+        this.dateColumn = dateColumn;
+        this.hasHeader = hasHeader;
+    }
+
+    public JoinResult join(List<DTData> declarations, Stream<XlsxRow> rows, Sink sink) {
+        var index = buildIndex(declarations);
+        var matchedDeclarations = new BitSet(declarations.size());
+        List<Integer> unmatchedRows = new ArrayList<>();
+        long total = 0;
+        long matched = 0;
+
+        Iterator<XlsxRow> it = rows.iterator();
+        var columns = resolveColumns(it, sink);
+
+        while (it.hasNext()) {
+            var row = it.next();
+            total++;
+
+            var key = JoinKey.of(row.cell(columns[0]), DTData.parseDate(row.cell(columns[1])));
+            var hits = index.get(key);
+            if (hits == null && key.epochDay() != DTData.NO_DATE) {
+                hits = index.get(key.withoutDate());
+            }
+
+            if (hits == null) {
+                if (unmatchedRows.size() < MAX_UNMATCHED_ROWS) {
+                    unmatchedRows.add(row.rowNum() + 1);
+                }
+                sink.row(row, List.of());
+                continue;
+            }
+
+            matched++;
+            List<DTData> matches = new ArrayList<>(hits.length);
+            for (int i : hits) {
+                matchedDeclarations.set(i);
+                matches.add(declarations.get(i));
+            }
+            sink.row(row, matches);
+        }
+
+        List<DTData> unmatchedDeclarations = new ArrayList<>();
+        for (int i = matchedDeclarations.nextClearBit(0); i < declarations.size(); i = matchedDeclarations.nextClearBit(i + 1)) {
+            unmatchedDeclarations.add(declarations.get(i));
+        }
+
+        log.info("Join: {} rows, {} matched, {} declarations without rows",
+                total, matched, unmatchedDeclarations.size());
+        return new JoinResult(total, matched, unmatchedRows, unmatchedDeclarations);
+    }
+
+    /**
+     * ДТ без распознанной даты попадают в индекс с NO_DATE
+     * и находятся вторым поиском только по номеру
+     */
+    private Map<JoinKey, int[]> buildIndex(List<DTData> declarations) {
+        Map<JoinKey, int[]> index = new HashMap<>(declarations.size() * 2);
+        for (int i = 0; i < declarations.size(); i++) {
+            var key = JoinKey.of(declarations.get(i));
+            if (key.number().isEmpty()) continue;
+            var existing = index.get(key);
+            if (existing == null) {
+                index.put(key, new int[]{i});
+            } else {
+                var grown = Arrays.copyOf(existing, existing.length + 1);
+                grown[existing.length] = i;
+                index.put(key, grown);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Колонки задаются заголовком или буквой (E); заголовок - первая строка листа
+     *
+     * @return индексы колонок номера и даты
+     */
+    private int[] resolveColumns(Iterator<XlsxRow> it, Sink sink) {
+        XlsxRow header = null;
+        if (hasHeader && it.hasNext()) {
+            header = it.next();
+            sink.header(header);
+        }
+        return new int[]{column(numberColumn, header), column(dateColumn, header)};
+    }
+
+    /**
+     * Сначала ищется заголовок с таким именем (короткие заголовки вроде "ID" или "Nr"
+     * не должны приниматься за букву колонки), затем имя трактуется как буква колонки
+     */
+    private int column(String name, XlsxRow header) {
+        if (header != null) {
+            for (int i = 0; i < header.size(); i++) {
+                if (name.equalsIgnoreCase(header.cell(i).strip())) {
+                    return i;
+                }
+            }
+        }
+        if (name.matches("[A-Za-z]{1,3}")) {
+            return CellReference.convertColStringToIndex(name.toUpperCase());
+        }
+        throw new IllegalStateException("В реестре нет колонки \"" + name + "\"");
+    }
+}
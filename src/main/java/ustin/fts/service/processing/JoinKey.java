@@ -0,0 +1,33 @@
+package ustin.fts.service.processing;
+
+import ustin.fts.xml.model.DTData;
+
+import java.util.regex.Pattern;
+
+/**
+ * Ключ сопоставления строки реестра и декларации: номер документа + дата
+ *
+ * @param number   нормализованный номер (без лишних пробелов, в верхнем регистре)
+ * @param epochDay дата документа или {@link DTData#NO_DATE}
+ */
+public record JoinKey(String number, int epochDay) {
+
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+
+    public static JoinKey of(String number, int epochDay) {
+        return new JoinKey(normalize(number), epochDay);
+    }
+
+    public static JoinKey of(DTData data) {
+        return of(data.getPrDocumentNumber(), data.getPrDocumentEpochDay());
+    }
+
+    public JoinKey withoutDate() {
+        return new JoinKey(number, DTData.NO_DATE);
+    }
+
+    private static String normalize(String number) {
+        if (number == null) return "";
+        return SPACES.matcher(number.strip()).replaceAll(" ").toUpperCase();
+    }
+}
@@ -0,0 +1,23 @@
+package ustin.fts.service.processing;
+
+import ustin.fts.xml.model.DTData;
+
+import java.util.List;
+
+/**
+ * Итог сопоставления реестра с декларациями
+ *
+ * @param rows                  строк данных в реестре (без заголовка)
+ * @param matchedRows           строк, для которых нашлась хотя бы одна ДТ
+ * @param unmatchedRowNumbers   номера первых строк без ДТ (в нумерации Excel, с 1)
+ * @param unmatchedDeclarations ДТ, не совпавшие ни с одной строкой
+ */
+public record JoinResult(long rows,
+                         long matchedRows,
+                         List<Integer> unmatchedRowNumbers,
+                         List<DTData> unmatchedDeclarations) {
+
+    public long unmatchedRows() {
+        return rows - matchedRows;
+    }
+}
@@ -0,0 +1,35 @@
+package ustin.fts.service.processing;
+
+import ustin.fts.xml.model.DTData;
+
+/**
+ * Результат разбора одного XML: данные либо текст ошибки
+ *
+ * @param source имя файла для сообщений пользователю
+ */
+public record ParseResult(String source, DTData data, String error) {
+
+    public static ParseResult ok(String source, DTData data) {
+        return new ParseResult(source, data, null);
+    }
+
+    public static ParseResult failed(String source, String error) {
+        return new ParseResult(source, null, error);
+    }
+
+    public static ParseResult failed(String source, Throwable cause) {
+        return failed(source, message(cause));
+    }
+
+    /**
+     * Текст ошибки для пользователя: у NPE, отмены и части ошибок StAX сообщения нет
+     */
+    public static String message(Throwable cause) {
+        var message = cause.getMessage();
+        return message != null && !message.isBlank() ? message : cause.getClass().getSimpleName();
+    }
+
+    public boolean isOk() {
+        return data != null;
+    }
+}
@@ -0,0 +1,234 @@
+package ustin.fts.service.processing;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.FillPatternType;
+import org.apache.poi.ss.usermodel.IndexedColors;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import ustin.fts.xlsx.model.XlsxRow;
+import ustin.fts.xml.model.DTData;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.function.Function;
+
+/**
+ * Запись результата: исходные строки реестра + колонки из сопоставленных ДТ.
+ * <p>
+ * Пишется через SXSSFWorkbook: в памяти держится только окно последних строк,
+ * остальные сбрасываются во временный файл POI. Стили создаются один раз.
+ * Если строке соответствуют несколько ДТ, различающиеся значения перечисляются через "; ".
+ * Числа и даты реестра и даты ДТ пишутся типизированными ячейками, а не текстом;
+ * числа реестра сохраняют исходный числовой формат.
+ * Данные ДТ всегда начинаются после заголовка: читатель реестра дополняет строки
+ * до ширины листа, а ячейки строки, не поместившиеся перед ними, не пишутся.
+ * Колонка с числом товарных позиций пишется, только если позиции извлекаются (fts.xml.goods.enabled).
+ */
+public class ResultWorkbookWriter implements JoinEngine.Sink, Closeable {
+
+    private static final String DATE_FORMAT = "dd.mm.yyyy";
+
+    private static final List<String> DT_TITLES = List.of(
+            "Страна происхождения", "Код решения", "Дата решения",
+            "Номер документа (ДТ)", "Дата документа (ДТ)", "Товарных позиций");
+
+    private static final List<Function<DTData, Object>> DT_VALUES = List.of(
+            DTData::getOriginCountryCode, DTData::getDecisionCode,
+            dt -> dateOrText(dt.getDecisionDate(), dt.getDecisionDateRaw()),
+            DTData::getPrDocumentNumber,
+            dt -> dateOrText(dt.getPrDocumentDate(), dt.getPrDocumentDateRaw()),
+            dt -> dt.getGoods().size());
+
+    private final SXSSFWorkbook workbook;
+    private final SXSSFSheet sheet;
+    private final CellStyle headerStyle;
+    private final CellStyle unmatchedStyle;
+    private final CellStyle dateStyle;
+    private final CellStyle unmatchedDateStyle;
+    private final Map<String, CellStyle> numberStyles = new HashMap<>();
+    private final Map<String, CellStyle> unmatchedNumberStyles = new HashMap<>();
+    private final int dtWidth;
+    private int dtColumn = -1;   // Первая колонка данных ДТ, фиксируется по заголовку или первой строке
+    private int nextRow;
+
+    /**
+     * @param goodsCount писать ли колонку "Товарных позиций" (последняя в DT_TITLES)
+     */
+    public ResultWorkbookWriter(int rowWindow, boolean goodsCount) {
+        this.dtWidth = goodsCount ? DT_TITLES.size() : DT_TITLES.size() - 1;
+        this.workbook = new SXSSFWorkbook(rowWindow);
+        this.workbook.setCompressTempFiles(true);
+        this.sheet = workbook.createSheet("Результат");
+
+        var bold = workbook.createFont();
+        bold.setBold(true);
+        this.headerStyle = workbook.createCellStyle();
+        this.headerStyle.setFont(bold);
+
+        this.unmatchedStyle = workbook.createCellStyle();
+        this.unmatchedStyle.setFillForegroundColor(IndexedColors.LIGHT_YELLOW.getIndex());
+        this.unmatchedStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
+
+        var dateFormat = workbook.createDataFormat().getFormat(DATE_FORMAT);
+        this.dateStyle = workbook.createCellStyle();
+        this.dateStyle.setDataFormat(dateFormat);
+        this.unmatchedDateStyle = workbook.createCellStyle();
+        this.unmatchedDateStyle.cloneStyleFrom(unmatchedStyle);
+        this.unmatchedDateStyle.setDataFormat(dateFormat);
+    }
+
+    @Override
+    public void header(XlsxRow header) {
+        dtColumn = header.size();
+        var row = sheet.createRow(nextRow++);
+        for (int c = 0; c < header.size(); c++) {
+            var cell = row.createCell(c);
+            var value = header.cells()[c];
+            if (value != null) {
+                cell.setCellValue(value);
+            }
+            cell.setCellStyle(headerStyle);
+        }
+        for (int i = 0; i < dtWidth; i++) {
+            var cell = row.createCell(dtColumn + i);
+            cell.setCellValue(DT_TITLES.get(i));
+            cell.setCellStyle(headerStyle);
+        }
+    }
+
+    @Override
+    public void row(XlsxRow source, List<DTData> matches) {
+        if (dtColumn < 0) {
+            dtColumn = source.size();
+        }
+        var row = sheet.createRow(nextRow++);
+        if (matches.isEmpty()) {
+            writeSource(row, source, unmatchedStyle, unmatchedDateStyle, unmatchedNumberStyles);
+            return;
+        }
+
+        writeSource(row, source, null, dateStyle, numberStyles);
+        for (int i = 0; i < dtWidth; i++) {
+            var value = joinValues(matches, DT_VALUES.get(i));
+            if (value != null) {
+                writeValue(row.createCell(dtColumn + i), value);
+            }
+        }
+    }
+
+    /**
+     * Записать книгу в файл
+     */
+    public void writeTo(Path target) throws IOException {
+        try (OutputStream out = Files.newOutputStream(target)) {
+            workbook.write(out);
+        }
+    }
+
+    /**
+     * Закрывает книгу и удаляет временные файлы SXSSF
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            workbook.close();
+        } finally {
+            workbook.dispose();
+        }
+    }
+
+    private void writeSource(Row row, XlsxRow source, CellStyle style, CellStyle dateCellStyle,
+                             Map<String, CellStyle> formatStyles) {
+        // Лишние ячейки строки шире заголовка заняли бы колонки ДТ
+        var width = Math.min(source.size(), dtColumn);
+        for (int c = 0; c < width; c++) {
+            var value = source.cells()[c];
+            if (value == null && style == null) continue;
+            var cell = row.createCell(c);
+            var number = source.number(c);
+            if (!Double.isNaN(number)) {
+                cell.setCellValue(number);
+                if (source.isDate(c)) {
+                    cell.setCellStyle(dateCellStyle);
+                    continue;
+                }
+                var format = source.format(c);
+                if (format != null) {
+                    cell.setCellStyle(formatStyles.computeIfAbsent(format, f -> numberStyle(f, style)));
+                    continue;
+                }
+            } else if (value != null) {
+                cell.setCellValue(value);
+            }
+            if (style != null) {
+                cell.setCellStyle(style);
+            }
+        }
+    }
+
+    /**
+     * Стиль с числовым форматом реестра поверх базового (заливки несопоставленных строк)
+     */
+    private CellStyle numberStyle(String format, CellStyle base) {
+        var numberStyle = workbook.createCellStyle();
+        if (base != null) {
+            numberStyle.cloneStyleFrom(base);
+        }
+        numberStyle.setDataFormat(workbook.createDataFormat().getFormat(format));
+        return numberStyle;
+    }
+
+    private void writeValue(Cell cell, Object value) {
+        if (value instanceof LocalDate date) {
+            cell.setCellValue(date);
+            cell.setCellStyle(dateStyle);
+        } else if (value instanceof Number number) {
+            cell.setCellValue(number.doubleValue());
+        } else {
+            cell.setCellValue(value.toString());
+        }
+    }
+
+    /**
+     * @return единственное значение с сохранением типа, строка различающихся значений через "; "
+     * или null, если значений нет
+     */
+    private Object joinValues(List<DTData> matches, Function<DTData, Object> getter) {
+        if (matches.size() == 1) {
+            return nonEmpty(getter.apply(matches.get(0)));
+        }
+        var values = new LinkedHashSet<Object>();
+        for (var dt : matches) {
+            var value = nonEmpty(getter.apply(dt));
+            if (value != null) {
+                values.add(value);
+            }
+        }
+        if (values.isEmpty()) return null;
+        if (values.size() == 1) return values.iterator().next();
+        var joined = new StringJoiner("; ");
+        for (var value : values) {
+            joined.add(value.toString());
+        }
+        return joined.toString();
+    }
+
+    private static Object nonEmpty(Object value) {
+        return value instanceof String s && s.isEmpty() ? null : value;
+    }
+
+    private static Object dateOrText(LocalDate date, String raw) {
+        return date != null ? date : raw;
+    }
+}
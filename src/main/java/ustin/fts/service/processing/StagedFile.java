@@ -0,0 +1,172 @@
+package ustin.fts.service.processing;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Скачанный файл, временно хранящийся до разбора: в буфере из пула
+ * или во временном файле на диске. close() освобождает буфер, файл и квоту.
+ * <p>
+ * Открытые потоки удерживают файл: если close() вызван во время чтения
+ * (например, при закрытии сессии), буфер вернется в пул, только когда закроется
+ * последний поток, и не будет перезаписан другой загрузкой посреди разбора
+ */
+public final class StagedFile implements AutoCloseable {
+
+    private final long chatId;
+    private final long size;
+    private final long charged;    // Сколько квоты занимает файл: весь буфер или объем на диске
+    private final byte[] buffer;   // Небольшой файл в памяти (буфер из пула)
+    private final Path path;       // Крупный файл на диске
+    private final FileStagingService owner;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final AtomicInteger refs = new AtomicInteger(1);   // Владелец и открытые потоки
+
+    StagedFile(long chatId, long size, long charged, byte[] buffer, Path path, FileStagingService owner) {
+        this.chatId = chatId;
+        this.size = size;
+        this.charged = charged;
+        this.buffer = buffer;
+        this.path = path;
+        this.owner = owner;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    long charged() {
+        return charged;
+    }
+
+    public long chatId() {
+        return chatId;
+    }
+
+    public boolean isOnDisk() {
+        return path != null;
+    }
+
+    /**
+     * Путь к файлу на диске; для файлов в памяти - null
+     */
+    public Path path() {
+        return path;
+    }
+
+    /**
+     * Новый поток чтения. Файлы на диске читаются через отображение в память,
+     * без копирования в кучу. Файл не освобождается, пока поток не закрыт
+     *
+     * @throws IOException если файл уже освобожден
+     */
+    public InputStream openStream() throws IOException {
+        retain();
+        try {
+            return new ReleasingStream(open());
+        } catch (IOException | RuntimeException e) {
+            unref();
+            throw e;
+        }
+    }
+
+    /**
+     * Освободить файл. Если его еще читают, освобождение откладывается до закрытия последнего потока
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            unref();
+        }
+    }
+
+    private InputStream open() throws IOException {
+        if (path == null) {
+            return new ByteArrayInputStream(buffer, 0, (int) size);
+        }
+        if (size > Integer.MAX_VALUE) {
+            // Отображение ограничено 2 ГБ
+            return Files.newInputStream(path);
+        }
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new MappedInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    private void retain() throws IOException {
+        while (true) {
+            var current = refs.get();
+            if (current == 0) throw new IOException("файл уже освобожден");
+            if (refs.compareAndSet(current, current + 1)) return;
+        }
+    }
+
+    private void unref() {
+        if (refs.decrementAndGet() != 0) return;
+        owner.release(this, buffer);
+        if (path != null) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException ignored) {
+                // Каталог staging очищается при старте
+            }
+        }
+    }
+
+    /**
+     * Поток, снимающий удержание файла при закрытии
+     */
+    private final class ReleasingStream extends FilterInputStream {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        ReleasingStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (released.compareAndSet(false, true)) {
+                try {
+                    super.close();
+                } finally {
+                    unref();
+                }
+            }
+        }
+    }
+
+    private static final class MappedInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        MappedInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
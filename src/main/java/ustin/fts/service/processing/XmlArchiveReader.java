@@ -0,0 +1,233 @@
+package ustin.fts.service.processing;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.function.BooleanSupplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Разбор архива с XML.
+ * <p>
+ * Архив читается последовательно, каждый XML-элемент сохраняется через
+ * {@link FileStagingService} (небольшие - в буфер из пула, крупные - на диск,
+ * с учетом квот чата и процесса) и отправляется в пул разбора.
+ * Одновременно сохранено не больше нескольких элементов (по числу потоков разбора),
+ * размеры и количество элементов ограничены настройками fts.archive.
+ */
+@Slf4j
+@Component
+public class XmlArchiveReader {
+
+    private final XmlParseStage parseStage;
+    private final FileStagingService staging;
+    private final int maxEntries;
+    private final long maxEntryBytes;
+    private final long maxTotalBytes;
+
+    public XmlArchiveReader(XmlParseStage parseStage,
+                            FileStagingService staging,
+                            @Value("${fts.archive.max-entries:1000}") int maxEntries,
+                            @Value("${fts.archive.max-entry-bytes:52428800}") long maxEntryBytes,
+                            @Value("${fts.archive.max-total-bytes:536870912}") long maxTotalBytes) {
+        this.parseStage = parseStage;
+        this.staging = staging;
+        this.maxEntries = maxEntries;
+        this.maxEntryBytes = maxEntryBytes;
+        this.maxTotalBytes = maxTotalBytes;
+    }
+
+    /**
+     * @param chatId чат, на квоту которого сохраняются распакованные XML
+     * @param name   имя архива для сообщений пользователю
+     * @return результат по каждому XML в порядке следования в архиве;
+     * при превышении лимитов или повреждении архива последним идет результат с ошибкой
+     */
+    public List<ParseResult> parseArchive(long chatId, String name, ArchiveType type, InputStream in) {
+        return parseArchive(chatId, name, type, in, () -> false);
+    }
+
+    /**
+     * @param cancelled проверяется перед каждым элементом: после отмены архив дальше не читается
+     */
+    public List<ParseResult> parseArchive(long chatId, String name, ArchiveType type, InputStream in,
+                                          BooleanSupplier cancelled) {
+        List<CompletableFuture<ParseResult>> futures = new ArrayList<>();
+        var inFlight = new Semaphore(parseStage.getParallelism() * 2);
+        ParseResult archiveError = null;
+        long totalBytes = 0;
+
+        try (var entries = open(type, in)) {
+            String entryName;
+            while ((entryName = entries.next()) != null) {
+                if (!isXml(entryName)) continue;
+
+                if (cancelled.getAsBoolean()) {
+                    archiveError = ParseResult.failed(name, "обработка отменена");
+                    break;
+                }
+
+                if (futures.size() >= maxEntries) {
+                    archiveError = ParseResult.failed(name, "в архиве больше " + maxEntries + " XML, остальные пропущены");
+                    break;
+                }
+
+                inFlight.acquireUninterruptibly();
+                StagedFile entry;
+                try {
+                    var limit = Math.min(maxEntryBytes, maxTotalBytes - totalBytes);
+                    entry = staging.stage(chatId, new LimitedInputStream(entries.stream(), limit), false);
+                } catch (LimitExceededException e) {
+                    inFlight.release();
+                    archiveError = ParseResult.failed(name + ": " + entryName,
+                            "превышен лимит размера распакованных данных, архив обработан не полностью");
+                    break;
+                } catch (FileStagingService.QuotaExceededException e) {
+                    inFlight.release();
+                    archiveError = ParseResult.failed(name + ": " + entryName, ParseResult.message(e) + ", архив обработан не полностью");
+                    break;
+                } catch (IOException e) {
+                    inFlight.release();
+                    throw e;
+                }
+                totalBytes += entry.size();
+
+                var source = new XmlSource(name + ": " + entryName, entry::openStream, cancelled);
+                futures.add(parseStage.submit(source).whenComplete((r, e) -> {
+                    entry.close();
+                    inFlight.release();
+                }));
+            }
+        } catch (IOException e) {
+            log.warn("Failed to read archive {}", name, e);
+            archiveError = ParseResult.failed(name, "архив поврежден: " + ParseResult.message(e));
+        }
+
+        List<ParseResult> results = new ArrayList<>(futures.size() + 1);
+        futures.forEach(f -> results.add(f.join()));
+        if (archiveError != null) {
+            log.warn("Archive {} not fully processed: {}", name, archiveError.error());
+            results.add(archiveError);
+        }
+        log.info("Archive {}: {} XML, {} bytes uncompressed", name, futures.size(), totalBytes);
+        return results;
+    }
+
+    private boolean isXml(String entryName) {
+        var lower = entryName.toLowerCase();
+        // Служебные файлы архиваторов macOS
+        return lower.endsWith(".xml") && !lower.startsWith("__macosx/") && !lower.contains("/._");
+    }
+
+
+    private Entries open(ArchiveType type, InputStream in) throws IOException {
+        return switch (type) {
+            case ZIP -> {
+                var zip = new ZipInputStream(in);
+                yield new Entries() {
+                    @Override
+                    public String next() throws IOException {
+                        for (var entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                            if (!entry.isDirectory()) return entry.getName();
+                        }
+                        return null;
+                    }
+
+                    @Override
+                    public InputStream stream() {
+                        return zip;
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        zip.close();
+                    }
+                };
+            }
+            case TAR_GZ -> {
+                var tar = new TarArchiveInputStream(new GZIPInputStream(in));
+                yield new Entries() {
+                    @Override
+                    public String next() throws IOException {
+                        for (var entry = tar.getNextEntry(); entry != null; entry = tar.getNextEntry()) {
+                            if (entry.isFile()) return entry.getName();
+                        }
+                        return null;
+                    }
+
+                    @Override
+                    public InputStream stream() {
+                        return tar;
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        tar.close();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Последовательный обход элементов архива; stream() читает текущий элемент
+     */
+    private interface Entries extends AutoCloseable {
+        String next() throws IOException;
+
+        InputStream stream();
+
+        @Override
+        void close() throws IOException;
+    }
+
+    /**
+     * Текущий элемент архива с ограничением объема; close() не закрывает архив
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) consume(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) consume(n);
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private void consume(int n) throws LimitExceededException {
+            remaining -= n;
+            if (remaining < 0) {
+                throw new LimitExceededException();
+            }
+        }
+    }
+
+    private static final class LimitExceededException extends IOException {
+    }
+}
@@ -0,0 +1,114 @@
+package ustin.fts.service.processing;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ustin.fts.xml.service.XmlService;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Параллельный разбор XML на выделенном пуле с ограниченным числом потоков
+ */
+@Slf4j
+@Component
+public class XmlParseStage {
+
+    private final XmlService xmlService;
+    private final ExecutorService executor;
+    private final int parallelism;
+
+    public XmlParseStage(XmlService xmlService,
+                         @Value("${fts.parse.parallelism:0}") int parallelism) {
+        this.xmlService = xmlService;
+        var threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.parallelism = threads;
+        var counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            var thread = new Thread(r, "xml-parse-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        log.info("XML parse stage started with {} threads", threads);
+    }
+
+    /**
+     * Поставить один файл в очередь разбора. Future никогда не завершается исключением
+     */
+    public CompletableFuture<ParseResult> submit(XmlSource source) {
+        return CompletableFuture.supplyAsync(() -> parse(source), executor);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Поток читается парсером напрямую, в памяти остается только DTData
+     */
+    private ParseResult parse(XmlSource source) {
+        if (source.cancelled().getAsBoolean()) {
+            return cancelled(source);
+        }
+        try (var in = new CancellableStream(source.opener().open(), source.cancelled())) {
+            return ParseResult.ok(source.name(), xmlService.parseXml(in));
+        } catch (Exception e) {
+            if (source.cancelled().getAsBoolean()) {
+                return cancelled(source);
+            }
+            log.warn("Failed to parse {}", source.name(), e);
+            var cause = e.getCause() != null ? e.getCause() : e;
+            return ParseResult.failed(source.name(), cause);
+        }
+    }
+
+    private ParseResult cancelled(XmlSource source) {
+        log.debug("Parse of {} cancelled", source.name());
+        return ParseResult.failed(source.name(), new CancellationException("обработка отменена"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Прерывает чтение, как только разбор отменен: парсер получает ошибку ввода-вывода
+     */
+    private static final class CancellableStream extends FilterInputStream {
+        private final BooleanSupplier cancelled;
+
+        CancellableStream(InputStream in, BooleanSupplier cancelled) {
+            super(in);
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        public int read() throws IOException {
+            check();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            check();
+            return super.read(b, off, len);
+        }
+
+        private void check() throws InterruptedIOException {
+            if (cancelled.getAsBoolean()) {
+                throw new InterruptedIOException("обработка отменена");
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package ustin.fts.service.processing;
+
+import java.io.InputStream;
+import java.util.function.BooleanSupplier;
+
+/**
+ * XML, который открывается как поток только в момент разбора
+ *
+ * @param name      имя файла для сообщений пользователю
+ * @param opener    открывает поток с содержимым (например, скачивание из Telegram)
+ * @param cancelled проверяется перед разбором и во время чтения: отмененный файл не занимает поток разбора
+ */
+public record XmlSource(String name, Opener opener, BooleanSupplier cancelled) {
+
+    public XmlSource(String name, Opener opener) {
+        this(name, opener, () -> false);
+    }
+
+    @FunctionalInterface
+    public interface Opener {
+        InputStream open() throws Exception;
+    }
+}
@@ -0,0 +1,84 @@
+package ustin.fts.web;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import ustin.fts.service.UpdateDispatcher;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Прием обновлений от Telegram в режиме webhook (telegram.bot.mode: webhook).
+ * <p>
+ * Запрос проверяется по заголовку X-Telegram-Bot-Api-Secret-Token (без него или с чужим
+ * значением - 403) и размеру тела (413), обновление ставится в очередь {@link UpdateDispatcher} без ожидания обработки.
+ * Если очередь чата заполнена, возвращается 503, и Telegram повторит доставку позже.
+ */
+@Slf4j
+@RestController
+@ConditionalOnProperty(name = "telegram.bot.mode", havingValue = "webhook")
+public class WebhookController {
+
+    static final String SECRET_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+
+    // Классы telegrambots размечены аннотациями Jackson 2, поэтому отдельный ObjectMapper
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final UpdateDispatcher dispatcher;
+    private final byte[] secret;
+    private final int maxBodyBytes;
+
+    public WebhookController(UpdateDispatcher dispatcher,
+                             @Value("${telegram.bot.webhook.secret}") String secret,
+                             @Value("${telegram.bot.webhook.max-body-bytes:1048576}") int maxBodyBytes) {
+        if (secret.isBlank()) {
+            throw new IllegalStateException("telegram.bot.webhook.secret is required in webhook mode");
+        }
+        this.dispatcher = dispatcher;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    @PostMapping("${telegram.bot.webhook.path:/telegram/webhook}")
+    public ResponseEntity<Void> receive(@RequestHeader(value = SECRET_HEADER, required = false) String token,
+                                        HttpServletRequest request) throws IOException {
+        if (token == null || !MessageDigest.isEqual(secret, token.getBytes(StandardCharsets.UTF_8))) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        if (request.getContentLengthLong() > maxBodyBytes) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+        }
+
+        // Content-Length может отсутствовать: читаем не больше лимита
+        var body = request.getInputStream().readNBytes(maxBodyBytes + 1);
+        if (body.length > maxBodyBytes) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+        }
+
+        Update update;
+        try {
+            update = MAPPER.readValue(body, Update.class);
+        } catch (IOException e) {
+            log.warn("Malformed webhook update: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+
+        if (!dispatcher.tryDispatch(update)) {
+            log.warn("Dispatcher queue is full, update {} rejected", update.getUpdateId());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        return ResponseEntity.ok().build();
+    }
+}
@@ -0,0 +1,54 @@
+package ustin.fts.xlsx.model;
+
+/**
+ * Строка листа в виде отформатированных значений ячеек
+ *
+ * @param rowNum  номер строки (с 0, как в POI)
+ * @param cells   значения по индексу колонки; отсутствующие ячейки - null
+ * @param numbers исходные числовые значения (для дат - серийный номер Excel);
+ *                NaN, если ячейка не числовая. null - все ячейки текстовые
+ * @param dates   true для числовых ячеек с форматом даты; null - дат нет
+ * @param formats формат числовой ячейки из стилей книги; null - общий формат
+ */
+public record XlsxRow(int rowNum, String[] cells, double[] numbers, boolean[] dates, String[] formats) {
+
+    /**
+     * Строка только из текстовых ячеек
+     */
+    public XlsxRow(int rowNum, String[] cells) {
+        this(rowNum, cells, null, null, null);
+    }
+
+    /**
+     * @return значение ячейки или пустая строка
+     */
+    public String cell(int column) {
+        if (column < 0 || column >= cells.length) return "";
+        var value = cells[column];
+        return value != null ? value : "";
+    }
+
+    /**
+     * @return исходное число ячейки или NaN, если ячейка не числовая
+     */
+    public double number(int column) {
+        if (numbers == null || column < 0 || column >= numbers.length) return Double.NaN;
+        return numbers[column];
+    }
+
+    public boolean isDate(int column) {
+        return dates != null && column >= 0 && column < dates.length && dates[column];
+    }
+
+    /**
+     * @return формат числовой ячейки или null для общего формата
+     */
+    public String format(int column) {
+        if (formats == null || column < 0 || column >= formats.length) return null;
+        return formats[column];
+    }
+
+    public int size() {
+        return cells.length;
+    }
+}
@@ -0,0 +1,15 @@
+package ustin.fts.xlsx.service;
+
+import ustin.fts.xlsx.model.XlsxRow;
+
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+public interface XlsxService {
+
+    /**
+     * Прочитать первый лист как ленивый поток строк.
+     * Поток нужно закрыть (try-with-resources), чтобы освободить файл
+     */
+    Stream<XlsxRow> readFirstSheet(Path file);
+}
@@ -0,0 +1,302 @@
+package ustin.fts.xlsx.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import ustin.fts.xlsx.model.XlsxRow;
+import ustin.fts.xlsx.service.XlsxService;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Потоковое чтение XLSX через event API POI (XSSFReader + XSSFSheetXMLHandler).
+ * <p>
+ * Лист разбирается SAX-парсером в отдельном виртуальном потоке, строки передаются
+ * потребителю через ограниченную очередь. В памяти одновременно находятся только
+ * таблица общих строк и несколько сотен строк листа, независимо от размера файла.
+ */
+@Slf4j
+@Component
+public class XlsxServiceImpl implements XlsxService {
+
+    private static final Object END = new Object();
+    private static final long PRODUCER_CHECK_MS = 1000;
+    private static final int MAX_SHEET_WIDTH = 1024;  // Больше - вероятно, dimension завышен форматированием
+
+    private final int queueCapacity;
+
+    public XlsxServiceImpl(@Value("${fts.xlsx.queue-capacity:1024}") int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    @Override
+    public Stream<XlsxRow> readFirstSheet(Path file) {
+        var queue = new ArrayBlockingQueue<Object>(queueCapacity);
+        var producer = Thread.ofVirtual()
+                .name("xlsx-reader")
+                .start(() -> produce(file, queue));
+
+        var rows = new QueueSpliterator(queue, producer);
+        return StreamSupport.stream(rows, false)
+                .onClose(producer::interrupt);
+    }
+
+    private void produce(Path file, BlockingQueue<Object> queue) {
+        try {
+            var pkg = OPCPackage.open(file.toFile(), PackageAccess.READ);
+            try {
+                var reader = new XSSFReader(pkg);
+                var strings = new ReadOnlySharedStringsTable(pkg);
+                var sheets = reader.getSheetsData();
+                if (sheets.hasNext()) {
+                    try (var sheet = sheets.next()) {
+                        var parser = XMLHelper.newXMLReader();
+                        var formatter = new IsoDateFormatter();
+                        var collector = new RowCollector(queue, formatter);
+                        parser.setContentHandler(new XSSFSheetXMLHandler(
+                                reader.getStylesTable(), strings, collector, formatter, false) {
+                            @Override
+                            public void startElement(String uri, String localName, String qName, Attributes attributes)
+                                    throws SAXException {
+                                // <dimension ref="A1:K500"> идет до данных: по нему все строки дополняются
+                                // до ширины листа, и колонки ДТ в результате не наезжают на широкие строки
+                                if ("dimension".equals(localName)) {
+                                    collector.setSheetWidth(attributes.getValue("ref"));
+                                }
+                                super.startElement(uri, localName, qName, attributes);
+                            }
+                        });
+                        parser.parse(new InputSource(sheet));
+                    }
+                }
+            } finally {
+                pkg.revert();
+            }
+            queue.put(END);
+        } catch (StoppedException | InterruptedException e) {
+            log.debug("XLSX reading stopped by consumer");
+        } catch (Exception e) {
+            if (Thread.currentThread().isInterrupted()) {
+                log.debug("XLSX reading stopped by consumer");
+                return;
+            }
+            log.error("Failed to read XLSX {}", file, e);
+            // Ошибку нельзя потерять при полной очереди: потребитель ждет ее в take().
+            // Если потребитель закрыл поток, он прерывает производителя и put() завершается
+            try {
+                queue.put(new Failure(e));
+            } catch (InterruptedException stopped) {
+                log.debug("XLSX reading stopped by consumer");
+            }
+        }
+    }
+
+    /**
+     * Собирает ячейки строки и отправляет строку в очередь.
+     * Для числовых ячеек и дат вместе с текстом сохраняется исходное число
+     */
+    private static final class RowCollector implements XSSFSheetXMLHandler.SheetContentsHandler {
+        private final BlockingQueue<Object> queue;
+        private final IsoDateFormatter formatter;
+        private String[] cells = new String[16];
+        private double[] numbers = new double[16];
+        private boolean[] dates = new boolean[16];
+        private String[] formats = new String[16];
+        private int sheetWidth;
+        private int width;
+        private int lastColumn;
+        private boolean typed;      // В строке есть числа или даты
+
+        RowCollector(BlockingQueue<Object> queue, IsoDateFormatter formatter) {
+            this.queue = queue;
+            this.formatter = formatter;
+        }
+
+        void setSheetWidth(String ref) {
+            if (ref == null || ref.isBlank()) return;
+            var last = ref.substring(ref.indexOf(':') + 1);
+            try {
+                var columns = new CellReference(last).getCol() + 1;
+                if (columns <= MAX_SHEET_WIDTH) {
+                    sheetWidth = columns;
+                } else {
+                    log.debug("Sheet dimension {} too wide, rows are not padded", ref);
+                }
+            } catch (IllegalArgumentException e) {
+                log.debug("Unparsable sheet dimension {}", ref);
+            }
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            width = 0;
+            lastColumn = -1;
+            typed = false;
+            formatter.reset();
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            int column = cellReference != null ? new CellReference(cellReference).getCol() : lastColumn + 1;
+            lastColumn = column;
+            ensureCapacity(column + 1);
+            clear(width, column);
+            cells[column] = formattedValue;
+            numbers[column] = formatter.lastNumber;
+            dates[column] = formatter.lastDate;
+            formats[column] = formatter.lastFormat;
+            typed |= !Double.isNaN(formatter.lastNumber);
+            formatter.reset();
+            width = Math.max(width, column + 1);
+        }
+
+        private void ensureCapacity(int size) {
+            if (size > cells.length) {
+                var capacity = Math.max(cells.length * 2, size);
+                cells = Arrays.copyOf(cells, capacity);
+                numbers = Arrays.copyOf(numbers, capacity);
+                dates = Arrays.copyOf(dates, capacity);
+                formats = Arrays.copyOf(formats, capacity);
+            }
+        }
+
+        /**
+         * Пустые ячейки в диапазоне [from, to)
+         */
+        private void clear(int from, int to) {
+            for (int i = from; i < to; i++) {
+                cells[i] = null;
+                numbers[i] = Double.NaN;
+                dates[i] = false;
+                formats[i] = null;
+            }
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            if (width < sheetWidth) {
+                ensureCapacity(sheetWidth);
+                clear(width, sheetWidth);
+                width = sheetWidth;
+            }
+            try {
+                queue.put(typed
+                        ? new XlsxRow(rowNum, Arrays.copyOf(cells, width), Arrays.copyOf(numbers, width),
+                        Arrays.copyOf(dates, width), Arrays.copyOf(formats, width))
+                        : new XlsxRow(rowNum, Arrays.copyOf(cells, width)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new StoppedException();
+            }
+        }
+    }
+
+    /**
+     * Даты выводятся в ISO-формате независимо от формата ячейки и локали.
+     * <p>
+     * XSSFSheetXMLHandler вызывает форматтер только для числовых ячеек непосредственно
+     * перед {@link RowCollector#cell}, поэтому здесь же запоминается исходное число
+     * и признак даты: так результат сохраняет типы ячеек реестра
+     */
+    private static final class IsoDateFormatter extends DataFormatter {
+        double lastNumber = Double.NaN;
+        boolean lastDate;
+        String lastFormat;
+
+        void reset() {
+            lastNumber = Double.NaN;
+            lastDate = false;
+            lastFormat = null;
+        }
+
+        @Override
+        public String formatRawCellContents(double value, int formatIndex, String formatString) {
+            lastNumber = value;
+            lastFormat = formatString == null || "General".equalsIgnoreCase(formatString) ? null : formatString;
+            lastDate = DateUtil.isADateFormat(formatIndex, formatString) && DateUtil.isValidExcelDate(value);
+            if (lastDate) {
+                return DateUtil.getLocalDateTime(value).toLocalDate().toString();
+            }
+            return super.formatRawCellContents(value, formatIndex, formatString);
+        }
+    }
+
+    private static final class QueueSpliterator extends Spliterators.AbstractSpliterator<XlsxRow> {
+        private final BlockingQueue<Object> queue;
+        private final Thread producer;
+        private boolean done;
+
+        QueueSpliterator(BlockingQueue<Object> queue, Thread producer) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.queue = queue;
+            this.producer = producer;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super XlsxRow> action) {
+            if (done) return false;
+            Object next;
+            try {
+                next = next();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while reading XLSX", e);
+            }
+            if (next == END) {
+                done = true;
+                return false;
+            }
+            if (next instanceof Failure failure) {
+                done = true;
+                throw new IllegalStateException("Не удалось прочитать XLSX: " + failure.cause().getMessage(), failure.cause());
+            }
+            action.accept((XlsxRow) next);
+            return true;
+        }
+
+        /**
+         * Ожидание с периодической проверкой производителя: если он завершился,
+         * ничего не положив в очередь (например, из-за Error), чтение не зависает
+         */
+        private Object next() throws InterruptedException {
+            while (true) {
+                var next = queue.poll(PRODUCER_CHECK_MS, TimeUnit.MILLISECONDS);
+                if (next != null) return next;
+                if (!producer.isAlive()) {
+                    next = queue.poll();
+                    if (next != null) return next;
+                    done = true;
+                    throw new IllegalStateException("Не удалось прочитать XLSX: чтение листа прервано");
+                }
+            }
+        }
+    }
+
+    private record Failure(Exception cause) {
+    }
+
+    private static final class StoppedException extends RuntimeException {
+    }
+}
@@ -1,27 +1,149 @@
 package ustin.fts.xml.model;
 
-import lombok.AllArgsConstructor;
+import lombok.AccessLevel;
 import lombok.Getter;
+import lombok.NoArgsConstructor;
 import lombok.Setter;
 
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Данные одной декларации в компактном виде: коды и номера документов
+ * приходят из общих пулов строк ({@link Interners}), даты разбираются один раз и хранятся как epoch day.
+ * Если дату разобрать не удалось, сохраняется исходный текст, чтобы он попал в результат.
+ */
 @Getter
-@Setter
-@AllArgsConstructor
+@NoArgsConstructor
 public class DTData {
-    private String originCountryCode;
-    private String decisionCode;
-    private String decisionDate;
-    private String prDocumentNumber;
-    private String prDocumentDate;
+
+    /** Значение epoch day для отсутствующей или нераспознанной даты */
+    public static final int NO_DATE = Integer.MIN_VALUE;
+
+    private static final DateTimeFormatter RU_DATE = DateTimeFormatter.ofPattern("dd.MM.yyyy");
+
+    private String originCountryCode = "";
+    private String decisionCode = "";
+    @Getter(AccessLevel.NONE)
+    private int decisionDate = NO_DATE;
+    /** Текст даты решения, если он не распознан как дата, иначе null */
+    private String decisionDateRaw;
+    private String prDocumentNumber = "";
+    @Getter(AccessLevel.NONE)
+    private int prDocumentDate = NO_DATE;
+    /** Текст даты документа, если он не распознан как дата, иначе null */
+    private String prDocumentDateRaw;
+    @Setter
+    private GoodsItems goods = GoodsItems.EMPTY;
+
+    public DTData(String originCountryCode, String decisionCode, String decisionDate,
+                  String prDocumentNumber, String prDocumentDate) {
+        setOriginCountryCode(originCountryCode);
+        setDecisionCode(decisionCode);
+        setDecisionDate(decisionDate);
+        setPrDocumentNumber(prDocumentNumber);
+        setPrDocumentDate(prDocumentDate);
+    }
+
+    public void setOriginCountryCode(String value) {
+        originCountryCode = value != null ? value : "";
+    }
+
+    public void setDecisionCode(String value) {
+        decisionCode = value != null ? value : "";
+    }
+
+    public void setDecisionDate(String value) {
+        decisionDate = parseDate(value);
+        decisionDateRaw = unparsed(decisionDate, value);
+    }
+
+    public void setPrDocumentNumber(String value) {
+        prDocumentNumber = value != null ? value : "";
+    }
+
+    public void setPrDocumentDate(String value) {
+        prDocumentDate = parseDate(value);
+        prDocumentDateRaw = unparsed(prDocumentDate, value);
+    }
+
+    /**
+     * @return дата решения или null
+     */
+    public LocalDate getDecisionDate() {
+        return toDate(decisionDate);
+    }
+
+    /**
+     * @return дата документа или null
+     */
+    public LocalDate getPrDocumentDate() {
+        return toDate(prDocumentDate);
+    }
+
+    /**
+     * @return дата решения, нераспознанный текст даты или пустая строка
+     */
+    public String getDecisionDateText() {
+        return dateText(decisionDate, decisionDateRaw);
+    }
+
+    /**
+     * @return дата документа, нераспознанный текст даты или пустая строка
+     */
+    public String getPrDocumentDateText() {
+        return dateText(prDocumentDate, prDocumentDateRaw);
+    }
+
+    public int getDecisionEpochDay() {
+        return decisionDate;
+    }
+
+    public int getPrDocumentEpochDay() {
+        return prDocumentDate;
+    }
+
+    /**
+     * Даты в ДТ - xs:date (2024-03-01, иногда со смещением 2024-03-01+03:00),
+     * в приложенных документах встречается и 01.03.2024
+     */
+    public static int parseDate(String value) {
+        if (value == null || value.length() < 10) return NO_DATE;
+        var date = value.substring(0, 10);
+        try {
+            return (int) LocalDate.parse(date).toEpochDay();
+        } catch (DateTimeParseException e) {
+            try {
+                return (int) LocalDate.parse(date, RU_DATE).toEpochDay();
+            } catch (DateTimeParseException ignored) {
+                return NO_DATE;
+            }
+        }
+    }
+
+    private static LocalDate toDate(int epochDay) {
+        return epochDay != NO_DATE ? LocalDate.ofEpochDay(epochDay) : null;
+    }
+
+    private static String unparsed(int epochDay, String value) {
+        return epochDay == NO_DATE && value != null && !value.isBlank() ? value : null;
+    }
+
+    private static String dateText(int epochDay, String raw) {
+        if (epochDay != NO_DATE) return LocalDate.ofEpochDay(epochDay).toString();
+        return raw != null ? raw : "";
+    }
 
     @Override
     public String toString() {
         return "DTData{" +
                "originCountryCode='" + originCountryCode + '\'' +
                ", decisionCode='" + decisionCode + '\'' +
-               ", decisionDate='" + decisionDate + '\'' +
+               ", decisionDate='" + getDecisionDateText() + '\'' +
                ", prDocumentNumber='" + prDocumentNumber + '\'' +
-               ", prDocumentDate='" + prDocumentDate + '\'' +
+               ", prDocumentDate='" + getPrDocumentDateText() + '\'' +
+               ", goods=" + goods.size() +
                '}';
     }
 }
@@ -0,0 +1,42 @@
+package ustin.fts.xml.model;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Свойства DTData, в которые можно направить извлеченное из XML поле
+ */
+public enum DTProperty {
+    ORIGIN_COUNTRY_CODE("originCountryCode", DTData::setOriginCountryCode),
+    DECISION_CODE("decisionCode", DTData::setDecisionCode),
+    DECISION_DATE("decisionDate", DTData::setDecisionDate),
+    PR_DOCUMENT_NUMBER("prDocumentNumber", DTData::setPrDocumentNumber),
+    PR_DOCUMENT_DATE("prDocumentDate", DTData::setPrDocumentDate);
+
+    private final String propertyName;
+    private final BiConsumer<DTData, String> setter;
+
+    DTProperty(String propertyName, BiConsumer<DTData, String> setter) {
+        this.propertyName = propertyName;
+        this.setter = setter;
+    }
+
+    public String getPropertyName() {
+        return propertyName;
+    }
+
+    public void set(DTData data, String value) {
+        setter.accept(data, value);
+    }
+
+    /**
+     * Найти свойство по имени поля DTData (например, originCountryCode)
+     */
+    public static DTProperty of(String propertyName) {
+        for (var property : values()) {
+            if (property.propertyName.equals(propertyName)) {
+                return property;
+            }
+        }
+        throw new IllegalArgumentException("Unknown DTData property: " + propertyName);
+    }
+}
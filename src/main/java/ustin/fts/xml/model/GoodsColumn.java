@@ -0,0 +1,32 @@
+package ustin.fts.xml.model;
+
+/**
+ * Колонки товарных позиций декларации
+ */
+public enum GoodsColumn {
+    ITEM_NUMBER("itemNumber"),
+    ORIGIN_COUNTRY_CODE("originCountryCode"),
+    TNVED_CODE("tnvedCode"),
+    GROSS_WEIGHT("grossWeight"),
+    NET_WEIGHT("netWeight"),
+    INVOICED_COST("invoicedCost");
+
+    private final String propertyName;
+
+    GoodsColumn(String propertyName) {
+        this.propertyName = propertyName;
+    }
+
+    public String getPropertyName() {
+        return propertyName;
+    }
+
+    public static GoodsColumn of(String propertyName) {
+        for (var column : values()) {
+            if (column.propertyName.equals(propertyName)) {
+                return column;
+            }
+        }
+        throw new IllegalArgumentException("Unknown goods column: " + propertyName);
+    }
+}
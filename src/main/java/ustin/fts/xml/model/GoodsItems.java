@@ -0,0 +1,207 @@
+package ustin.fts.xml.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Товарные позиции декларации в колоночном виде.
+ * <p>
+ * Каждая колонка - отдельный массив примитивов, коды стран хранятся
+ * индексами в словаре, поэтому декларация с десятками тысяч позиций
+ * занимает несколько сотен килобайт, а не объект на каждую позицию.
+ * Отсутствующие значения: -1 для целых и кодов, NaN для чисел с плавающей точкой.
+ */
+public final class GoodsItems {
+
+    public static final GoodsItems EMPTY = new Builder().build();
+
+    private final int size;
+    private final int[] itemNumbers;
+    private final int[] countryIndexes;
+    private final String[] countryDictionary;
+    private final long[] tnvedCodes;
+    private final double[] grossWeights;
+    private final double[] netWeights;
+    private final double[] invoicedCosts;
+
+    private GoodsItems(Builder b) {
+        this.size = b.size;
+        this.itemNumbers = Arrays.copyOf(b.itemNumbers, b.size);
+        this.countryIndexes = Arrays.copyOf(b.countryIndexes, b.size);
+        this.countryDictionary = b.countryDictionary.toArray(String[]::new);
+        this.tnvedCodes = Arrays.copyOf(b.tnvedCodes, b.size);
+        this.grossWeights = Arrays.copyOf(b.grossWeights, b.size);
+        this.netWeights = Arrays.copyOf(b.netWeights, b.size);
+        this.invoicedCosts = Arrays.copyOf(b.invoicedCosts, b.size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int itemNumber(int i) {
+        return itemNumbers[i];
+    }
+
+    /**
+     * @return код страны или пустая строка
+     */
+    public String originCountryCode(int i) {
+        var index = countryIndexes[i];
+        return index >= 0 ? countryDictionary[index] : "";
+    }
+
+    /**
+     * @return код ТН ВЭД из 10 цифр или пустая строка
+     */
+    public String tnvedCode(int i) {
+        var code = tnvedCodes[i];
+        return code >= 0 ? String.format("%010d", code) : "";
+    }
+
+    public double grossWeight(int i) {
+        return grossWeights[i];
+    }
+
+    public double netWeight(int i) {
+        return netWeights[i];
+    }
+
+    public double invoicedCost(int i) {
+        return invoicedCosts[i];
+    }
+
+    /**
+     * Накопитель позиций для потокового разбора: позиции добавляются по одной,
+     * массивы растут удвоением
+     */
+    public static final class Builder {
+        private static final int INITIAL_CAPACITY = 16;
+
+        private final StringInterner countries;
+
+        private int size;
+        private int[] itemNumbers = new int[INITIAL_CAPACITY];
+        private int[] countryIndexes = new int[INITIAL_CAPACITY];
+        private long[] tnvedCodes = new long[INITIAL_CAPACITY];
+        private double[] grossWeights = new double[INITIAL_CAPACITY];
+        private double[] netWeights = new double[INITIAL_CAPACITY];
+        private double[] invoicedCosts = new double[INITIAL_CAPACITY];
+
+        private final List<String> countryDictionary = new ArrayList<>();
+        private final Map<String, Integer> countryIndex = new HashMap<>();
+
+        private boolean open;
+        private final boolean[] filled = new boolean[GoodsColumn.values().length];
+
+        /**
+         * Без общего пула: коды стран повторяются только в пределах одной декларации
+         */
+        public Builder() {
+            this(new StringInterner(0));
+        }
+
+        /**
+         * @param countries пул, из которого берутся коды стран в словаре
+         */
+        public Builder(StringInterner countries) {
+            this.countries = countries;
+        }
+
+        /**
+         * Начать новую позицию; все колонки получают значения "отсутствует"
+         */
+        public void startItem() {
+            if (size == itemNumbers.length) {
+                grow();
+            }
+            itemNumbers[size] = -1;
+            countryIndexes[size] = -1;
+            tnvedCodes[size] = -1;
+            grossWeights[size] = Double.NaN;
+            netWeights[size] = Double.NaN;
+            invoicedCosts[size] = Double.NaN;
+            Arrays.fill(filled, false);
+            open = true;
+        }
+
+        /**
+         * @return true, если колонка текущей позиции еще не заполнена
+         */
+        public boolean accepts(GoodsColumn column) {
+            return open && !filled[column.ordinal()];
+        }
+
+        public void set(GoodsColumn column, String value) {
+            if (!accepts(column)) return;
+            filled[column.ordinal()] = true;
+            switch (column) {
+                case ITEM_NUMBER -> itemNumbers[size] = parseInt(value);
+                case ORIGIN_COUNTRY_CODE -> countryIndexes[size] = countryIndex(value);
+                case TNVED_CODE -> tnvedCodes[size] = parseLong(value);
+                case GROSS_WEIGHT -> grossWeights[size] = parseDouble(value);
+                case NET_WEIGHT -> netWeights[size] = parseDouble(value);
+                case INVOICED_COST -> invoicedCosts[size] = parseDouble(value);
+            }
+        }
+
+        public void endItem() {
+            if (!open) return;
+            open = false;
+            size++;
+        }
+
+        public GoodsItems build() {
+            return new GoodsItems(this);
+        }
+
+        private int countryIndex(String code) {
+            if (code.isEmpty()) return -1;
+            return countryIndex.computeIfAbsent(code, c -> {
+                countryDictionary.add(countries.intern(c));
+                return countryDictionary.size() - 1;
+            });
+        }
+
+        private void grow() {
+            var capacity = itemNumbers.length * 2;
+            itemNumbers = Arrays.copyOf(itemNumbers, capacity);
+            countryIndexes = Arrays.copyOf(countryIndexes, capacity);
+            tnvedCodes = Arrays.copyOf(tnvedCodes, capacity);
+            grossWeights = Arrays.copyOf(grossWeights, capacity);
+            netWeights = Arrays.copyOf(netWeights, capacity);
+            invoicedCosts = Arrays.copyOf(invoicedCosts, capacity);
+        }
+
+        private static int parseInt(String value) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        private static long parseLong(String value) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        private static double parseDouble(String value) {
+            try {
+                return Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package ustin.fts.xml.model;
+
+/**
+ * Пулы строк, через которые проходят значения полей ДТ при разборе
+ *
+ * @param codes           коды стран и решений: словарь небольшой и почти не растет
+ * @param documentNumbers номера документов: одни и те же сертификаты встречаются во многих ДТ
+ */
+public record Interners(StringInterner codes, StringInterner documentNumbers) {
+
+    /**
+     * Каноническая строка для значения свойства; даты и прочие свойства не пулятся
+     */
+    public String intern(DTProperty property, String value) {
+        return switch (property) {
+            case ORIGIN_COUNTRY_CODE, DECISION_CODE -> codes.intern(value);
+            case PR_DOCUMENT_NUMBER -> documentNumbers.intern(value);
+            default -> value;
+        };
+    }
+}
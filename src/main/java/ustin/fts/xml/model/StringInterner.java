@@ -0,0 +1,74 @@
+package ustin.fts.xml.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Пул канонических строк для часто повторяющихся значений
+ * (коды стран, коды решений, номера документов).
+ * <p>
+ * Размер ограничен: при переполнении вытесняются давно не встречавшиеся строки (LRU),
+ * так что поток уникальных значений не превращается в утечку памяти,
+ * а актуальный словарь продолжает переиспользоваться.
+ * Пул разбит на сегменты со своей блокировкой, чтобы потоки разбора не ждали друг друга.
+ */
+public final class StringInterner {
+
+    private static final int MAX_SEGMENTS = 16;
+
+    private final Segment[] segments;
+    private final int mask;
+
+    /**
+     * @param maxSize максимум строк в пуле; 0 - пул отключен, строки возвращаются как есть
+     */
+    public StringInterner(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must not be negative: " + maxSize);
+        }
+        int count = Math.max(1, Math.min(MAX_SEGMENTS, Integer.highestOneBit(Math.max(1, maxSize / 64))));
+        this.segments = new Segment[count];
+        this.mask = count - 1;
+        for (int i = 0; i < count; i++) {
+            // Остаток от деления достается первым сегментам: суммарная емкость ровно maxSize
+            segments[i] = new Segment(maxSize / count + (i < maxSize % count ? 1 : 0));
+        }
+    }
+
+    public String intern(String value) {
+        if (value == null || value.isEmpty()) return "";
+        var h = value.hashCode();
+        var segment = segments[(h ^ (h >>> 16)) & mask];
+        if (segment.capacity == 0) return value;
+        synchronized (segment) {
+            var existing = segment.get(value);
+            if (existing != null) return existing;
+            segment.put(value, value);
+            return value;
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (var segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    private static final class Segment extends LinkedHashMap<String, String> {
+        final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > capacity;
+        }
+    }
+}
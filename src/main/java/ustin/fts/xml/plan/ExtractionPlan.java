@@ -0,0 +1,121 @@
+package ustin.fts.xml.plan;
+
+import ustin.fts.xml.model.DTProperty;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Скомпилированный набор полей для однопроходного разбора.
+ * <p>
+ * Неизменяемый: индексы по local name и префиксу строятся один раз при старте,
+ * а состояние разбора каждого документа хранится отдельно, поэтому один план
+ * безопасно использовать из нескольких потоков.
+ */
+public final class ExtractionPlan {
+
+    /** Номер слота для элемента в namespace; слоты fallback нумеруются с 0 */
+    public static final int PRIMARY = -1;
+
+    /**
+     * Поле и слот, к которым относится элемент с данным local name
+     */
+    public record Target(int field, int slot) {
+    }
+
+    private final FieldSpec[] fields;
+    private final Map<String, Target[]> byLocalName;
+    private final Map<String, int[]> byPrefix;
+    private final GoodsSpec goods;
+
+    private ExtractionPlan(FieldSpec[] fields, Map<String, Target[]> byLocalName, Map<String, int[]> byPrefix,
+                           GoodsSpec goods) {
+        this.fields = fields;
+        this.byLocalName = byLocalName;
+        this.byPrefix = byPrefix;
+        this.goods = goods;
+    }
+
+    public static ExtractionPlan compile(List<FieldSpec> specs) {
+        return compile(specs, null);
+    }
+
+    /**
+     * @param goods описание товарных позиций или null, если позиции не извлекаются
+     */
+    public static ExtractionPlan compile(List<FieldSpec> specs, GoodsSpec goods) {
+        if (specs.isEmpty()) {
+            throw new IllegalArgumentException("Extraction plan has no fields");
+        }
+
+        var fields = specs.toArray(FieldSpec[]::new);
+        Map<String, List<Target>> targets = new HashMap<>();
+        Map<String, List<Integer>> prefixes = new HashMap<>();
+        var names = new HashSet<String>();
+        var properties = EnumSet.noneOf(DTProperty.class);
+
+        for (int i = 0; i < fields.length; i++) {
+            var field = fields[i];
+            if (!names.add(field.name())) {
+                throw new IllegalArgumentException("Duplicate field name: " + field.name());
+            }
+            if (!properties.add(field.property())) {
+                throw new IllegalArgumentException("Property " + field.property().getPropertyName()
+                                                   + " is mapped by more than one field");
+            }
+            if (field.namespace() == null && field.prefix() == null && field.fallbacks().isEmpty()) {
+                throw new IllegalArgumentException("Field " + field.name() + " can never match");
+            }
+
+            if (field.namespace() != null || field.prefix() != null) {
+                targets.computeIfAbsent(field.localName(), k -> new ArrayList<>()).add(new Target(i, PRIMARY));
+            }
+            if (field.namespace() == null && field.prefix() != null) {
+                prefixes.computeIfAbsent(field.prefix(), k -> new ArrayList<>()).add(i);
+            }
+            for (int slot = 0; slot < field.fallbacks().size(); slot++) {
+                targets.computeIfAbsent(field.fallbacks().get(slot), k -> new ArrayList<>()).add(new Target(i, slot));
+            }
+        }
+
+        Map<String, Target[]> byLocalName = new HashMap<>();
+        targets.forEach((name, list) -> byLocalName.put(name, list.toArray(Target[]::new)));
+        Map<String, int[]> byPrefix = new HashMap<>();
+        prefixes.forEach((prefix, list) -> byPrefix.put(prefix, list.stream().mapToInt(Integer::intValue).toArray()));
+
+        return new ExtractionPlan(fields, Map.copyOf(byLocalName), Map.copyOf(byPrefix), goods);
+    }
+
+    public int size() {
+        return fields.length;
+    }
+
+    public FieldSpec field(int index) {
+        return fields[index];
+    }
+
+    /**
+     * Поля и слоты, которые может заполнить элемент с данным local name
+     */
+    public Target[] targets(String localName) {
+        return byLocalName.get(localName);
+    }
+
+    /**
+     * @return описание товарных позиций или null
+     */
+    public GoodsSpec goods() {
+        return goods;
+    }
+
+    /**
+     * Поля, namespace которых задается данным префиксом корневого элемента
+     */
+    public int[] fieldsByPrefix(String prefix) {
+        return byPrefix.get(prefix);
+    }
+}
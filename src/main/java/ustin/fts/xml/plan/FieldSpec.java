@@ -0,0 +1,28 @@
+package ustin.fts.xml.plan;
+
+import ustin.fts.xml.model.DTProperty;
+
+import java.util.List;
+
+/**
+ * Описание одного извлекаемого поля.
+ *
+ * @param name      имя поля (для логов)
+ * @param prefix    префикс namespace, объявленный на корневом элементе
+ * @param namespace явный URI namespace; если задан, префикс не используется
+ * @param localName имя элемента внутри namespace
+ * @param fallbacks имена элементов в любом namespace, которые проверяются по порядку,
+ *                  если элемент в namespace не найден или пустой
+ * @param property  свойство DTData, в которое записывается значение
+ */
+public record FieldSpec(String name,
+                        String prefix,
+                        String namespace,
+                        String localName,
+                        List<String> fallbacks,
+                        DTProperty property) {
+
+    public FieldSpec {
+        fallbacks = List.copyOf(fallbacks);
+    }
+}
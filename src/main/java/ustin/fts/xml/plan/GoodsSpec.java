@@ -0,0 +1,18 @@
+package ustin.fts.xml.plan;
+
+import ustin.fts.xml.model.GoodsColumn;
+
+import java.util.Map;
+
+/**
+ * Описание товарных позиций.
+ *
+ * @param element local name элемента одной позиции (например, ESADout_CUGoods)
+ * @param columns local name элемента внутри позиции -> колонка
+ */
+public record GoodsSpec(String element, Map<String, GoodsColumn> columns) {
+
+    public GoodsSpec {
+        columns = Map.copyOf(columns);
+    }
+}
@@ -1,18 +1,13 @@
 package ustin.fts.xml.service;
 
-import org.w3c.dom.Document;
 import ustin.fts.xml.model.DTData;
 
-import javax.xml.xpath.XPath;
+import java.io.InputStream;
 
 public interface XmlService {
 
     DTData parseXml(byte[] xmlData);
 
-    String getXmlValue(Document doc, XPath xpath, String xpathExpr, String tagName);
-
-    String getValueByXPath(Document doc, XPath xpath, String expression);
-
-    String getValueByTagName(Document doc, String tagName);
+    DTData parseXml(InputStream in);
 
 }
\ No newline at end of file
@@ -0,0 +1,278 @@
+package ustin.fts.xml.service.impl;
+
+import ustin.fts.xml.model.DTData;
+import ustin.fts.xml.model.GoodsColumn;
+import ustin.fts.xml.model.GoodsItems;
+import ustin.fts.xml.model.Interners;
+import ustin.fts.xml.model.StringInterner;
+import ustin.fts.xml.plan.ExtractionPlan;
+import ustin.fts.xml.plan.GoodsSpec;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Однопроходное извлечение полей ДТ через StAX по скомпилированному плану.
+ * <p>
+ * Семантика та же, что у DOM + XPath: сначала берется первый элемент
+ * в namespace поля (префикс разрешается по объявлениям корневого элемента),
+ * если его нет или он пустой - первый найденный элемент из списка fallback
+ * в любом namespace. Чтение прекращается, как только значения всех полей определены.
+ * <p>
+ * Если в плане описаны товарные позиции, документ читается до конца
+ * и все позиции собираются в колоночный {@link GoodsItems}.
+ */
+class StaxDtExtractor {
+
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private final ExtractionPlan plan;
+    private final Interners interners;
+
+    StaxDtExtractor(ExtractionPlan plan, Interners interners) {
+        this.plan = plan;
+        this.interners = interners;
+    }
+
+    DTData extract(InputStream in) throws XMLStreamException {
+        var reader = FACTORY.createXMLStreamReader(in);
+        try {
+            var state = new FieldState[plan.size()];
+            for (int i = 0; i < state.length; i++) {
+                var field = plan.field(i);
+                state[i] = new FieldState(field.namespace(), field.fallbacks().size());
+            }
+
+            var goods = plan.goods() != null ? new GoodsState(plan.goods(), interners.codes()) : null;
+            extract(reader, state, goods);
+
+            var data = new DTData();
+            for (int i = 0; i < state.length; i++) {
+                var property = plan.field(i).property();
+                property.set(data, interners.intern(property, state[i].value()));
+            }
+            if (goods != null) {
+                data.setGoods(goods.items.build());
+            }
+            return data;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void extract(XMLStreamReader reader, FieldState[] state, GoodsState goods) throws XMLStreamException {
+        List<Capture> captures = new ArrayList<>();
+        int depth = 0;
+        boolean root = true;
+
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT -> {
+                    depth++;
+                    if (root) {
+                        resolveNamespaces(reader, state);
+                        root = false;
+                    }
+                    startCaptures(reader, state, captures, depth);
+                    if (goods != null) {
+                        goods.start(reader.getLocalName(), depth);
+                    }
+                }
+                case XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA, XMLStreamConstants.SPACE -> {
+                    for (var capture : captures) {
+                        capture.text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    }
+                    if (goods != null && goods.capturing()) {
+                        goods.text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    }
+                }
+                case XMLStreamConstants.END_ELEMENT -> {
+                    boolean finished = finishCaptures(state, captures, depth);
+                    if (goods != null) {
+                        goods.end(depth);
+                    } else if (finished && allResolved(state)) {
+                        return;
+                    }
+                    depth--;
+                }
+                default -> {
+                }
+            }
+        }
+    }
+
+    /**
+     * Префиксы, как и в DOM-версии, берутся только из объявлений корневого элемента
+     */
+    private void resolveNamespaces(XMLStreamReader reader, FieldState[] state) {
+        for (int n = 0; n < reader.getNamespaceCount(); n++) {
+            var prefix = reader.getNamespacePrefix(n);
+            var uri = reader.getNamespaceURI(n);
+            if (prefix == null || prefix.isEmpty() || uri == null || uri.isEmpty()) continue;
+
+            var fields = plan.fieldsByPrefix(prefix);
+            if (fields == null) continue;
+            for (int field : fields) {
+                state[field].namespace = uri;
+            }
+        }
+    }
+
+    private void startCaptures(XMLStreamReader reader, FieldState[] state, List<Capture> captures, int depth) {
+        var targets = plan.targets(reader.getLocalName());
+        if (targets == null) return;
+
+        for (var target : targets) {
+            var s = state[target.field()];
+            if (target.slot() == ExtractionPlan.PRIMARY) {
+                if (s.namespace != null && s.primary == null && !s.primaryCapturing
+                    && s.namespace.equals(reader.getNamespaceURI())) {
+                    s.primaryCapturing = true;
+                    captures.add(new Capture(target.field(), target.slot(), depth));
+                }
+            } else if (s.fallbacks[target.slot()] == null && !s.fallbackCapturing[target.slot()]) {
+                s.fallbackCapturing[target.slot()] = true;
+                captures.add(new Capture(target.field(), target.slot(), depth));
+            }
+        }
+    }
+
+    /**
+     * @return true, если на этом уровне завершился хотя бы один захват
+     */
+    private boolean finishCaptures(FieldState[] state, List<Capture> captures, int depth) {
+        boolean finished = false;
+        for (var it = captures.iterator(); it.hasNext(); ) {
+            var capture = it.next();
+            if (capture.depth != depth) continue;
+            it.remove();
+            finished = true;
+
+            var value = capture.text.toString().trim();
+            var s = state[capture.field];
+            if (capture.slot == ExtractionPlan.PRIMARY) {
+                s.primary = value;
+                s.primaryCapturing = false;
+            } else {
+                s.fallbacks[capture.slot] = value;
+                s.fallbackCapturing[capture.slot] = false;
+            }
+        }
+        return finished;
+    }
+
+    private boolean allResolved(FieldState[] state) {
+        for (var s : state) {
+            if (!s.resolved()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Файлы приходят от пользователей: DTD и внешние сущности отключены (XXE, "billion laughs")
+     */
+    private static XMLInputFactory createFactory() {
+        var factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    private static final class FieldState {
+        String namespace;              // URI namespace поля, null если префикс не объявлен
+        String primary;                // Значение первого элемента в namespace
+        final String[] fallbacks;      // Значения первых элементов по каждому fallback-имени
+        boolean primaryCapturing;
+        final boolean[] fallbackCapturing;
+
+        FieldState(String namespace, int fallbackCount) {
+            this.namespace = namespace;
+            this.fallbacks = new String[fallbackCount];
+            this.fallbackCapturing = new boolean[fallbackCount];
+        }
+
+        boolean resolved() {
+            if (namespace != null && primary == null) return false;
+            if (primary != null && !primary.isEmpty()) return true;
+            // Дальше решает fallback: достаточно найти самый приоритетный
+            return fallbacks.length == 0 || fallbacks[0] != null;
+        }
+
+        String value() {
+            if (primary != null && !primary.isEmpty()) return primary;
+            for (var fallback : fallbacks) {
+                if (fallback != null) return fallback;
+            }
+            return "";
+        }
+    }
+
+    /**
+     * Состояние разбора товарных позиций: текущая позиция и захватываемая колонка
+     */
+    private static final class GoodsState {
+        final GoodsSpec spec;
+        final GoodsItems.Builder items;
+        final StringBuilder text = new StringBuilder();
+        int itemDepth = -1;       // Глубина открытой позиции, -1 вне позиции
+        GoodsColumn column;       // Захватываемая колонка
+        int columnDepth;
+
+        GoodsState(GoodsSpec spec, StringInterner countries) {
+            this.spec = spec;
+            this.items = new GoodsItems.Builder(countries);
+        }
+
+        boolean capturing() {
+            return column != null;
+        }
+
+        void start(String localName, int depth) {
+            if (itemDepth < 0) {
+                if (spec.element().equals(localName)) {
+                    items.startItem();
+                    itemDepth = depth;
+                }
+                return;
+            }
+            if (column != null) return;
+            var target = spec.columns().get(localName);
+            if (target != null && items.accepts(target)) {
+                column = target;
+                columnDepth = depth;
+                text.setLength(0);
+            }
+        }
+
+        void end(int depth) {
+            if (column != null && depth == columnDepth) {
+                items.set(column, text.toString().trim());
+                column = null;
+            }
+            if (depth == itemDepth) {
+                items.endItem();
+                itemDepth = -1;
+            }
+        }
+    }
+
+    private static final class Capture {
+        final int field;
+        final int slot;
+        final int depth;
+        final StringBuilder text = new StringBuilder();
+
+        Capture(int field, int slot, int depth) {
+            this.field = field;
+            this.slot = slot;
+            this.depth = depth;
+        }
+    }
+}
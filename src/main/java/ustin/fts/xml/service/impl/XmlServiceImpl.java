@@ -1,120 +1,47 @@
 package ustin.fts.xml.service.impl;
 
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
-import org.w3c.dom.Attr;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 import ustin.fts.xml.model.DTData;
+import ustin.fts.xml.model.Interners;
+import ustin.fts.xml.plan.ExtractionPlan;
 import ustin.fts.xml.service.XmlService;
 
-import javax.xml.namespace.NamespaceContext;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathFactory;
+import javax.xml.stream.XMLStreamException;
 import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.io.InputStream;
 
 @Slf4j
 @Component
-@RequiredArgsConstructor
 public class XmlServiceImpl implements XmlService {
 
-    @Override
-    public DTData parseXml(byte[] xmlData) {
-        var factory = DocumentBuilderFactory.newInstance();
-        factory.setNamespaceAware(true);
-        Document doc = null;
-        try {
-            doc = factory.newDocumentBuilder().parse(new ByteArrayInputStream(xmlData));
-        } catch (SAXException | IOException | ParserConfigurationException e) {
-            throw new RuntimeException(e);
-        }
-
-        // Извлекаем namespace
-        Map<String, String> namespaces = new HashMap<>();
-        var attrs = doc.getDocumentElement().getAttributes();
-        for (int i = 0; i < attrs.getLength(); i++) {
-            var attr = (Attr) attrs.item(i);
-            var name = attr.getName();
-            if (name.startsWith("xmlns:")) {
-                namespaces.put(name.substring(6), attr.getValue());
-            }
-        }
-
-        var xpath = XPathFactory.newInstance().newXPath();
-        xpath.setNamespaceContext(new NamespaceContext() {
-
-            @Override
-            public String getNamespaceURI(String prefix) {
-                if (prefix == null) throw new NullPointerException("Null prefix");
-                return namespaces.getOrDefault(prefix, "");
-            }
-
-            @Override
-            public String getPrefix(String uri) {
-                return null;
-            }
-
-            @Override
-            public Iterator<String> getPrefixes(String uri) {
-                return Collections.emptyIterator();
-            }
-        });
-
-        var originCountry = getXmlValue(doc, xpath, "//catESAD_cu:OriginCountryCode", "OriginCountryCode");
-        var decisionCode = getXmlValue(doc, xpath, "//catESAD_ru:DecisionCode", "DecisionCode");
-        var decisionDate = getXmlValue(doc, xpath, "//catESAD_ru:DateInf", "DateInf");
-        var docNumber = getXmlValue(doc, xpath, "//cat_ru:PrDocumentNumber", "PrDocumentNumber");
-        var docDate = getXmlValue(doc, xpath, "//cat_ru:PrDocumentDate", "PrDocumentDate");
+    private final StaxDtExtractor extractor;
+    private final Timer parseTimer;
 
-        return new DTData(originCountry, decisionCode, decisionDate, docNumber, docDate);
+    public XmlServiceImpl(ExtractionPlan plan, Interners interners, MeterRegistry registry) {
+        this.extractor = new StaxDtExtractor(plan, interners);
+        this.parseTimer = Timer.builder("fts.xml.parse")
+                .description("Разбор одной ДТ")
+                .publishPercentileHistogram()
+                .register(registry);
     }
 
     @Override
-    public String getXmlValue(Document doc, XPath xpath, String xpathExpr, String tagName) {
-        String value = getValueByXPath(doc, xpath, xpathExpr);
-        if (value.isEmpty()) {
-            value = getValueByTagName(doc, tagName);
-        }
-        return value;
+    public DTData parseXml(byte[] xmlData) {
+        return parseXml(new ByteArrayInputStream(xmlData));
     }
 
     @Override
-    public String getValueByXPath(Document doc, XPath xpath, String expression) {
+    public DTData parseXml(InputStream in) {
+        var sample = Timer.start();
         try {
-            var node = (Node) xpath.compile(expression).evaluate(doc, XPathConstants.NODE);
-
-            return node != null ? node.getTextContent().trim() : "";
-        } catch (Exception e) {
-            log.debug("XPath error for {}: {}", expression, e.getMessage());
-            return "";
-        }
-    }
-
-    @Override
-    public String getValueByTagName(Document doc, String tagName) {
-        // Сначала ищем с namespace
-        var nodes = doc.getElementsByTagNameNS("*", tagName);
-        if (nodes.getLength() > 0) {
-            return nodes.item(0).getTextContent().trim();
-        }
-
-        // Пробуем без namespace
-        nodes = doc.getElementsByTagName(tagName);
-        if (nodes.getLength() > 0) {
-            return nodes.item(0).getTextContent().trim();
+            return extractor.extract(in);
+        } catch (XMLStreamException e) {
+            throw new RuntimeException(e);
+        } finally {
+            sample.stop(parseTimer);
         }
-
-        return "";
     }
-}
\ No newline at end of file
+}
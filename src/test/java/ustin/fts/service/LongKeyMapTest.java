@@ -0,0 +1,103 @@
+package ustin.fts.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class LongKeyMapTest {
+
+    @Test
+    void randomOperationsMatchHashMap() {
+        var map = new LongKeyMap<String>();
+        Map<Long, String> expected = new HashMap<>();
+        var random = new Random(42);
+
+        // Узкий диапазон ключей дает длинные цепочки и удаления с переходом через конец таблицы
+        for (int step = 0; step < 200_000; step++) {
+            long key = random.nextInt(300) - 150;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                var value = "v" + key;
+                assertEquals(expected.computeIfAbsent(key, k -> value), map.computeIfAbsent(key, k -> value));
+            }
+            if (step % 1000 == 0) {
+                assertContent(expected, map);
+            }
+        }
+        assertContent(expected, map);
+    }
+
+    @Test
+    void computeIfAbsentKeepsExistingValue() {
+        var map = new LongKeyMap<String>();
+        var first = map.computeIfAbsent(7, k -> "first");
+
+        assertSame(first, map.computeIfAbsent(7, k -> "second"));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    void removeIfReturnsRemovedKeysAndKeepsOthersReachable() {
+        var map = new LongKeyMap<Long>();
+        for (long key = 0; key < 1000; key++) {
+            map.computeIfAbsent(key, k -> k);
+        }
+
+        var removed = map.removeIf((key, value) -> key % 3 != 0);
+
+        assertEquals(666, removed.size());
+        assertEquals(334, map.size());
+        for (long key = 0; key < 1000; key++) {
+            assertEquals(key % 3 == 0 ? Long.valueOf(key) : null, map.get(key));
+        }
+    }
+
+    @Test
+    void shrinksAfterMassRemovalAndStaysUsable() {
+        var map = new LongKeyMap<Long>();
+        for (long key = 0; key < 10_000; key++) {
+            map.computeIfAbsent(key, k -> k);
+        }
+        for (long key = 0; key < 9_990; key++) {
+            map.remove(key);
+        }
+
+        assertEquals(10, map.size());
+        for (long key = 9_990; key < 10_000; key++) {
+            assertEquals(Long.valueOf(key), map.get(key));
+        }
+        map.clear();
+        assertEquals(0, map.size());
+        assertNull(map.get(9_999));
+    }
+
+    @Test
+    void minByFindsLowestScore() {
+        var map = new LongKeyMap<Long>();
+        assertNull(map.minBy(v -> v));
+
+        map.computeIfAbsent(1, k -> 30L);
+        map.computeIfAbsent(2, k -> 10L);
+        map.computeIfAbsent(3, k -> 20L);
+
+        assertEquals(Long.valueOf(2), map.minBy(v -> v));
+    }
+
+    private static void assertContent(Map<Long, String> expected, LongKeyMap<String> map) {
+        assertEquals(expected.size(), map.size());
+        assertEquals(new TreeSet<>(expected.keySet()), new TreeSet<>(map.keys()));
+        for (var entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        assertEquals(List.copyOf(new TreeSet<>(expected.values())), List.copyOf(new TreeSet<>(map.values())));
+    }
+}
@@ -0,0 +1,165 @@
+package ustin.fts.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SessionJournalTest {
+
+    private static final ReceivedFile XLSX = new ReceivedFile("f1", "u1", "xlsx", 100);
+    private static final ReceivedFile XML = new ReceivedFile("f2", "u2", "xml", 0);
+
+    @TempDir
+    Path dir;
+
+    private final List<SessionJournal> opened = new ArrayList<>();
+
+    @AfterEach
+    void closeAll() {
+        opened.forEach(SessionJournal::close);
+    }
+
+    @Test
+    void replaysRecordsAfterRestart() {
+        var journal = open(1 << 20, new Recorder(), List::of);
+        journal.logStart(1, "/fts", 2, List.of("xlsx", "xml"));
+        journal.logFile(1, XLSX);
+        journal.logStart(2, "/fts", 2, List.of());
+        journal.logFile(1, XML);
+        journal.logRemove(2);
+        journal.close();
+
+        var replay = new Recorder();
+        open(1 << 20, replay, List::of);
+
+        assertEquals(List.of(
+                "start 1 /fts 2 [xlsx, xml]",
+                "file 1 u1 f1 xlsx 100",
+                "start 2 /fts 2 []",
+                "file 1 u2 f2 xml 0",
+                "remove 2"), replay.records);
+    }
+
+    @Test
+    void tornTailIsIgnoredAndTruncated() throws IOException {
+        var journal = open(1 << 20, new Recorder(), List::of);
+        journal.logStart(1, "/fts", 2, List.of("xlsx"));
+        journal.logFile(1, XLSX);
+        journal.close();
+        var intact = Files.size(journalPath());
+
+        // Запись оборвалась при аварии: заголовок обещает больше данных, чем есть
+        Files.write(journalPath(), new byte[]{0, 0, 0, 50, 1, 2, 3, 4, 5}, StandardOpenOption.APPEND);
+        var replay = new Recorder();
+        journal = open(1 << 20, replay, List::of);
+
+        assertEquals(2, replay.records.size());
+        assertEquals(intact, Files.size(journalPath()));
+
+        // Новые записи идут сразу за последней целой
+        journal.logRemove(1);
+        journal.close();
+        replay = new Recorder();
+        open(1 << 20, replay, List::of);
+        assertEquals("remove 1", replay.records.getLast());
+        assertEquals(3, replay.records.size());
+    }
+
+    @Test
+    void corruptedRecordStopsReplay() throws IOException {
+        var journal = open(1 << 20, new Recorder(), List::of);
+        journal.logStart(1, "/fts", 2, List.of("xlsx"));
+        journal.close();
+        var first = Files.size(journalPath());
+        journal = open(1 << 20, new Recorder(), List::of);
+        journal.logFile(1, XLSX);
+        journal.logRemove(1);
+        journal.close();
+
+        // Повреждаем тело второй записи: CRC не сойдется
+        var bytes = Files.readAllBytes(journalPath());
+        bytes[(int) first + 12] ^= 0x7f;
+        Files.write(journalPath(), bytes);
+
+        var replay = new Recorder();
+        open(1 << 20, replay, List::of);
+        assertEquals(List.of("start 1 /fts 2 [xlsx]"), replay.records);
+        assertEquals(first, Files.size(journalPath()));
+    }
+
+    @Test
+    void compactionMovesSessionsToSnapshot() throws Exception {
+        var state = new UserState(7L);
+        state.setCurrentCommand("/fts");
+        state.setExpectedFiles(2);
+        state.getExpectedFileTypes().add("xlsx");
+        state.addReceivedFile(XLSX);
+
+        var journal = open(1, new Recorder(), () -> List.of(state));
+        journal.logStart(7, "/fts", 2, List.of("xlsx"));
+        journal.logFile(7, XLSX);
+        journal.logStart(8, "/fts", 2, List.of());
+        journal.logRemove(8);
+
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!(Files.exists(snapshotPath()) && Files.size(journalPath()) == 0) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(Files.exists(snapshotPath()));
+        assertEquals(0, Files.size(journalPath()));
+        journal.close();
+
+        var replay = new Recorder();
+        open(1 << 20, replay, List::of);
+        assertEquals(List.of("start 7 /fts 2 [xlsx]", "file 7 u1 f1 xlsx 100"), replay.records);
+    }
+
+    private SessionJournal open(long compactBytes, SessionJournal.Replay replay,
+                                Supplier<Collection<UserState>> snapshotSource) {
+        var journal = new SessionJournal(true, dir, 10, compactBytes);
+        journal.open(replay, snapshotSource);
+        opened.add(journal);
+        return journal;
+    }
+
+    private Path journalPath() {
+        return dir.resolve("sessions.journal");
+    }
+
+    private Path snapshotPath() {
+        return dir.resolve("sessions.snapshot");
+    }
+
+    private static final class Recorder implements SessionJournal.Replay {
+        final List<String> records = new ArrayList<>();
+
+        @Override
+        public void start(long chatId, String command, int expectedFiles, List<String> fileTypes) {
+            records.add("start " + chatId + " " + command + " " + expectedFiles + " " + fileTypes);
+        }
+
+        @Override
+        public void file(long chatId, ReceivedFile file) {
+            records.add("file " + chatId + " " + file.fileUniqueId() + " " + file.fileId() + " "
+                        + file.type() + " " + file.size());
+        }
+
+        @Override
+        public void remove(long chatId) {
+            records.add("remove " + chatId);
+        }
+    }
+}
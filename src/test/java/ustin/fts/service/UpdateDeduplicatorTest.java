@@ -0,0 +1,170 @@
+package ustin.fts.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UpdateDeduplicatorTest {
+
+    private static final long GAP_TIMEOUT = 1_000;
+    private static final long NOW = 1_000_000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void redeliveryIsDroppedWhilePendingAndAfterDone() {
+        var dedup = dedup(64);
+
+        assertTrue(dedup.firstSeen(10, NOW));
+        assertFalse(dedup.firstSeen(10, NOW));
+
+        dedup.markDone(10);
+        dedup.checkpoint(NOW);
+        assertEquals(10, dedup.getWatermark());
+        assertFalse(dedup.firstSeen(10, NOW));
+    }
+
+    @Test
+    void slowStripeHoldsWatermark() {
+        var dedup = dedup(64);
+        // Все три обновления уже в очередях разных полос; 11 и 12 обработаны раньше 10
+        assertTrue(dedup.firstSeen(10, NOW));
+        assertTrue(dedup.firstSeen(11, NOW));
+        assertTrue(dedup.firstSeen(12, NOW));
+        dedup.markDone(12);
+        dedup.markDone(11);
+
+        dedup.checkpoint(NOW + 10 * GAP_TIMEOUT);
+        assertEquals(9, dedup.getWatermark());
+
+        dedup.markDone(10);
+        dedup.checkpoint(NOW);
+        assertEquals(12, dedup.getWatermark());
+    }
+
+    @Test
+    void retainedUpdateIsDoneAfterLastRelease() {
+        var dedup = dedup(64);
+        dedup.firstSeen(1, NOW);
+        dedup.retain(1);
+
+        // Обработчик вернулся, задача /process еще идет
+        dedup.markDone(1);
+        dedup.checkpoint(NOW);
+        assertEquals(0, dedup.getWatermark());
+
+        dedup.markDone(1);
+        dedup.checkpoint(NOW);
+        assertEquals(1, dedup.getWatermark());
+    }
+
+    @Test
+    void gapInNumberingWaitsForLateUpdate() {
+        var dedup = dedup(64);
+        done(dedup, 1);
+        done(dedup, 3);
+
+        dedup.checkpoint(NOW);
+        assertEquals(1, dedup.getWatermark());
+
+        // Обновление 2 пришло по другому соединению позже 3
+        assertTrue(dedup.firstSeen(2, NOW));
+        dedup.markDone(2);
+        dedup.checkpoint(NOW);
+        assertEquals(3, dedup.getWatermark());
+    }
+
+    @Test
+    void gapIsSkippedAfterTimeout() {
+        var dedup = dedup(64);
+        done(dedup, 1);
+        done(dedup, 4);
+
+        dedup.checkpoint(NOW);
+        dedup.checkpoint(NOW + GAP_TIMEOUT - 1);
+        assertEquals(1, dedup.getWatermark());
+
+        dedup.checkpoint(NOW + GAP_TIMEOUT);
+        assertEquals(4, dedup.getWatermark());
+    }
+
+    @Test
+    void forgottenUpdateIsAcceptedAgain() {
+        var dedup = dedup(64);
+        assertTrue(dedup.firstSeen(5, NOW));
+
+        dedup.forget(5);
+
+        assertTrue(dedup.firstSeen(5, NOW));
+    }
+
+    @Test
+    void idGoingBackAfterIdleResetsWindow() {
+        var dedup = dedup(64);
+        done(dedup, 1000);
+        dedup.checkpoint(NOW);
+
+        // Неделя без обновлений: Telegram начал нумерацию заново
+        var later = NOW + Duration.ofDays(7).toMillis();
+        assertTrue(dedup.firstSeen(5, later));
+        assertEquals(4, dedup.getWatermark());
+        assertTrue(dedup.firstSeen(6, later));
+        dedup.markDone(5);
+        dedup.markDone(6);
+        dedup.checkpoint(later);
+        assertEquals(6, dedup.getWatermark());
+    }
+
+    @Test
+    void farJumpBackResetsWindowWithoutIdle() {
+        var dedup = dedup(64);
+        done(dedup, 1000);
+        dedup.checkpoint(NOW);
+
+        assertFalse(dedup.firstSeen(990, NOW));
+        assertTrue(dedup.firstSeen(100, NOW));
+        assertEquals(99, dedup.getWatermark());
+    }
+
+    @Test
+    void updateBeyondWindowMovesWatermark() {
+        var dedup = dedup(16);
+        assertTrue(dedup.firstSeen(1, NOW));
+
+        assertTrue(dedup.firstSeen(100, NOW));
+
+        assertEquals(84, dedup.getWatermark());
+        assertFalse(dedup.firstSeen(80, NOW));
+    }
+
+    @Test
+    void watermarkSurvivesRestart() {
+        var dedup = dedup(64);
+        done(dedup, 41);
+        done(dedup, 42);
+        dedup.checkpoint(NOW);
+
+        var restarted = dedup(64);
+        restarted.load();
+
+        assertEquals(42, restarted.getWatermark());
+        assertFalse(restarted.firstSeen(42, System.currentTimeMillis()));
+        assertTrue(restarted.firstSeen(43, System.currentTimeMillis()));
+    }
+
+    private UpdateDeduplicator dedup(int capacity) {
+        return new UpdateDeduplicator(capacity, dir.resolve("update-offset"), GAP_TIMEOUT, 24);
+    }
+
+    private static void done(UpdateDeduplicator dedup, long updateId) {
+        assertTrue(dedup.firstSeen(updateId, NOW));
+        dedup.markDone(updateId);
+    }
+}
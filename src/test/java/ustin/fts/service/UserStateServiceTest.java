@@ -0,0 +1,68 @@
+package ustin.fts.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UserStateServiceTest {
+
+    @TempDir
+    Path dir;
+
+    private final List<Object> events = new ArrayList<>();
+
+    @Test
+    void idleSessionsExpire() {
+        var service = service(10);
+        service.getOrCreateState(1L).setLastAccessAt(System.currentTimeMillis() - Duration.ofMinutes(2).toMillis());
+        service.getOrCreateState(2L);
+
+        service.evictExpired();
+
+        assertNull(service.getState(1L));
+        assertNotNull(service.getState(2L));
+        assertEquals(List.of(new SessionClosedEvent(1L)), events);
+    }
+
+    @Test
+    void leastRecentlyUsedSessionIsEvictedAtLimit() {
+        var service = service(2);
+        service.getOrCreateState(1L).setLastAccessAt(2_000);
+        service.getOrCreateState(2L).setLastAccessAt(1_000);
+
+        service.getOrCreateState(3L);
+
+        assertEquals(2, service.getActiveUsersCount());
+        assertTrue(service.hasState(1L));
+        assertTrue(service.hasState(3L));
+        assertEquals(List.of(new SessionClosedEvent(2L)), events);
+    }
+
+    @Test
+    void accessRefreshesSession() {
+        var service = service(2);
+        service.getOrCreateState(1L).setLastAccessAt(1_000);
+        service.getOrCreateState(2L).setLastAccessAt(2_000);
+
+        // Обращение к первой сессии делает второй кандидатом на вытеснение
+        service.getState(1L);
+        service.getOrCreateState(3L);
+
+        assertTrue(service.hasState(1L));
+        assertEquals(List.of(new SessionClosedEvent(2L)), events);
+    }
+
+    private UserStateService service(int maxSize) {
+        var journal = new SessionJournal(false, dir, 200, 1 << 20);
+        return new UserStateService(events::add, journal, 1, maxSize);
+    }
+}
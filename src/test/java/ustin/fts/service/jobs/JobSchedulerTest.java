@@ -0,0 +1,175 @@
+package ustin.fts.service.jobs;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JobSchedulerTest {
+
+    private static final long NO_AGING = 1_000_000;
+
+    private JobScheduler scheduler;
+
+    @AfterEach
+    void stop() {
+        if (scheduler != null) {
+            scheduler.stop();
+        }
+    }
+
+    @Test
+    void shortJobsRunFirst() throws Exception {
+        scheduler = new JobScheduler(1, 10, 1, NO_AGING);
+        var order = new CopyOnWriteArrayList<Integer>();
+        var release = new CountDownLatch(1);
+        var finished = new CountDownLatch(4);
+
+        scheduler.submit(1, 100, job -> {
+            release.await();
+            finished.countDown();
+        });
+        scheduler.start();
+        for (var weight : List.of(5, 1, 3)) {
+            scheduler.submit(10 + weight, weight, job -> {
+                order.add(weight);
+                finished.countDown();
+            });
+        }
+        release.countDown();
+
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(1, 3, 5), order);
+    }
+
+    @Test
+    void positionFollowsCostThenSubmissionOrder() {
+        scheduler = new JobScheduler(1, 10, 1, NO_AGING);
+
+        var heavy = scheduler.submit(1, 10, job -> { });
+        var light = scheduler.submit(2, 1, job -> { });
+        var sameWeight = scheduler.submit(3, 1, job -> { });
+
+        assertEquals(1, heavy.position());
+        assertEquals(1, light.position());
+        assertEquals(2, sameWeight.position());
+        assertEquals(3, scheduler.position(heavy.job()));
+    }
+
+    @Test
+    void waitingJobAgesAheadOfNewerShortOnes() throws Exception {
+        scheduler = new JobScheduler(1, 10, 1, 1);
+
+        var heavy = scheduler.submit(1, 20, job -> { });
+        Thread.sleep(100);
+        var light = scheduler.submit(2, 1, job -> { });
+
+        // За 100 мс ожидания стоимость большого пакета упала ниже единицы
+        assertEquals(1, scheduler.position(heavy.job()));
+        assertEquals(2, scheduler.position(light.job()));
+    }
+
+    @Test
+    void oneActiveJobPerChat() {
+        scheduler = new JobScheduler(1, 10, 1, NO_AGING);
+        var first = scheduler.submit(1, 1, job -> { });
+
+        var e = assertThrows(JobScheduler.RejectedException.class, () -> scheduler.submit(1, 1, job -> { }));
+        assertTrue(e.getMessage().contains("#" + first.job().getId()));
+        scheduler.submit(2, 1, job -> { });
+    }
+
+    @Test
+    void fullQueueRejects() {
+        scheduler = new JobScheduler(1, 2, 1, NO_AGING);
+        scheduler.submit(1, 1, job -> { });
+        scheduler.submit(2, 1, job -> { });
+
+        var e = assertThrows(JobScheduler.RejectedException.class, () -> scheduler.submit(3, 1, job -> { }));
+        assertTrue(e.getMessage().contains("очередь заполнена"));
+    }
+
+    @Test
+    void cancelRemovesQueuedJob() {
+        scheduler = new JobScheduler(1, 10, 1, NO_AGING);
+        var queued = scheduler.submit(1, 1, job -> { });
+
+        scheduler.cancel(1);
+
+        assertEquals(Job.State.CANCELLED, queued.job().getState());
+        assertEquals(0, scheduler.getQueueSize());
+        assertTrue(scheduler.active(1).isEmpty());
+        scheduler.submit(1, 1, job -> { });
+    }
+
+    @Test
+    void runningJobStopsAtCancellationPoint() throws Exception {
+        scheduler = new JobScheduler(1, 10, 1, NO_AGING);
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        scheduler.start();
+
+        var running = scheduler.submit(1, 1, job -> {
+            started.countDown();
+            release.await();
+            job.checkCancelled();
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        scheduler.cancel(1);
+        release.countDown();
+
+        awaitFinished(running.job());
+        assertEquals(Job.State.CANCELLED, running.job().getState());
+    }
+
+    @Test
+    void failedJobFreesChatSlot() throws Exception {
+        scheduler = new JobScheduler(1, 10, 1, NO_AGING);
+        scheduler.start();
+
+        var failing = scheduler.submit(1, 1, job -> {
+            throw new IllegalStateException("boom");
+        });
+
+        awaitFinished(failing.job());
+        assertEquals(Job.State.FAILED, failing.job().getState());
+        scheduler.submit(1, 1, job -> { });
+    }
+
+    @Test
+    void completionCallbackRunsOnceWhateverTheOutcome() throws Exception {
+        scheduler = new JobScheduler(1, 10, 1, NO_AGING);
+        var finished = new AtomicInteger();
+
+        var cancelled = scheduler.submit(1, 1, job -> { }, finished::incrementAndGet);
+        scheduler.cancel(1);
+        assertEquals(Job.State.CANCELLED, cancelled.job().getState());
+        assertEquals(1, finished.get());
+
+        scheduler.start();
+        var failing = scheduler.submit(2, 1, job -> {
+            throw new IllegalStateException("boom");
+        }, finished::incrementAndGet);
+        awaitFinished(failing.job());
+        var done = scheduler.submit(3, 1, job -> { }, finished::incrementAndGet);
+        awaitFinished(done.job());
+
+        assertEquals(3, finished.get());
+    }
+
+    private static void awaitFinished(Job job) throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!job.isFinished() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(job.isFinished());
+    }
+}
@@ -0,0 +1,89 @@
+package ustin.fts.service.outbound;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageSenderTest {
+
+    private static final long CHAT = 1;
+    private static final long OTHER_CHAT = 2;
+
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+    private MessageSender sender;
+
+    @BeforeEach
+    void setUp() {
+        // Лимит чата - одно сообщение сразу, следующее через миллисекунду
+        sender = new MessageSender(null, new SimpleMeterRegistry(), 1000, 1000, 1, 5);
+    }
+
+    @AfterEach
+    void tearDown() {
+        sender.stop();
+    }
+
+    @Test
+    void chatMessagesKeepOrderAcrossPriorities() throws Exception {
+        sender.submit(CHAT, Priority.PROGRESS, record("progress"));
+        sender.submit(CHAT, Priority.RESULT, record("file"));
+        var last = sender.submit(CHAT, Priority.RESULT, record("done"));
+
+        sender.start();
+        last.get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of("progress", "file", "done"), sent);
+        assertEquals(0, sender.getQueueSize());
+    }
+
+    @Test
+    void nextChatMessageWaitsForPreviousResponse() throws Exception {
+        var response = new CompletableFuture<Object>();
+        sender.submit(CHAT, Priority.RESULT, c -> {
+            sent.add("file");
+            return response;
+        });
+        var done = sender.submit(CHAT, Priority.RESULT, record("done"));
+        var other = sender.submit(OTHER_CHAT, Priority.PROGRESS, record("other"));
+
+        sender.start();
+        // Другой чат не ждет ответа на чужое сообщение
+        other.get(5, TimeUnit.SECONDS);
+        Thread.sleep(50);
+        assertEquals(List.of("file", "other"), sent);
+
+        response.complete("ok");
+        done.get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("file", "other", "done"), sent);
+    }
+
+    @Test
+    void failedMessageDoesNotBlockChat() throws Exception {
+        var failed = sender.submit(CHAT, Priority.RESULT, c -> {
+            throw new IllegalStateException("boom");
+        });
+        var next = sender.submit(CHAT, Priority.RESULT, record("next"));
+
+        sender.start();
+        next.get(5, TimeUnit.SECONDS);
+
+        assertTrue(failed.isCompletedExceptionally());
+        assertEquals(List.of("next"), sent);
+    }
+
+    private MessageSender.Call record(String name) {
+        return c -> {
+            sent.add(name);
+            return CompletableFuture.completedFuture(name);
+        };
+    }
+}
@@ -0,0 +1,75 @@
+package ustin.fts.service.outbound;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    void burstIsAvailableImmediately() {
+        var bucket = new TokenBucket(1, 3, 0);
+
+        assertEquals(0, bucket.tryAcquire(0));
+        assertEquals(0, bucket.tryAcquire(0));
+        assertEquals(0, bucket.tryAcquire(0));
+        assertTrue(bucket.tryAcquire(0) > 0);
+    }
+
+    @Test
+    void waitIsTimeUntilNextToken() {
+        var bucket = new TokenBucket(2, 1, 0);
+
+        assertEquals(0, bucket.tryAcquire(0));
+        assertEquals(SECOND / 2, bucket.tryAcquire(0));
+        assertEquals(SECOND / 4, bucket.tryAcquire(SECOND / 4));
+        assertEquals(0, bucket.tryAcquire(SECOND / 2));
+    }
+
+    @Test
+    void refillIsCappedByBurst() {
+        var bucket = new TokenBucket(10, 2, 0);
+        bucket.tryAcquire(0);
+        bucket.tryAcquire(0);
+
+        // За минуту накопилось бы 600 маркеров, но в запасе не больше двух
+        var later = 60 * SECOND;
+        assertEquals(0, bucket.tryAcquire(later));
+        assertEquals(0, bucket.tryAcquire(later));
+        assertTrue(bucket.tryAcquire(later) > 0);
+    }
+
+    @Test
+    void failedAttemptDoesNotConsumeToken() {
+        var bucket = new TokenBucket(1, 1, 0);
+        bucket.tryAcquire(0);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(bucket.tryAcquire(SECOND / 2) > 0);
+        }
+        assertEquals(0, bucket.tryAcquire(SECOND));
+    }
+
+    @Test
+    void zeroBurstStillAllowsOneToken() {
+        var bucket = new TokenBucket(1, 0, 0);
+
+        assertEquals(0, bucket.tryAcquire(0));
+        assertEquals(SECOND, bucket.tryAcquire(0));
+    }
+
+    @Test
+    void idleOnlyWhenFull() {
+        var bucket = new TokenBucket(1, 2, 0);
+        assertTrue(bucket.isIdle(0));
+
+        bucket.tryAcquire(0);
+        assertFalse(bucket.isIdle(0));
+        assertFalse(bucket.isIdle(SECOND / 2));
+        assertTrue(bucket.isIdle(SECOND));
+    }
+}
@@ -0,0 +1,132 @@
+package ustin.fts.service.processing;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ustin.fts.service.SessionClosedEvent;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileStagingServiceTest {
+
+    private static final int THRESHOLD = 1024;
+    private static final long CHAT = 7;
+
+    @TempDir
+    Path dir;
+
+    private FileStagingService staging;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        staging = new FileStagingService(THRESHOLD, 2, 10 * THRESHOLD, 100 * THRESHOLD, dir);
+        staging.init();
+    }
+
+    @Test
+    void smallFileInMemoryIsChargedForWholeBuffer() throws IOException {
+        var data = bytes(10);
+        try (var file = staging.stage(CHAT, new ByteArrayInputStream(data), false)) {
+            assertFalse(file.isOnDisk());
+            assertEquals(10, file.size());
+            assertEquals(THRESHOLD, staging.getGlobalUsed());
+            try (var in = file.openStream()) {
+                assertArrayEquals(data, in.readAllBytes());
+            }
+        }
+        assertEquals(0, staging.getGlobalUsed());
+    }
+
+    @Test
+    void largeFileGoesToDiskAndIsChargedBySize() throws IOException {
+        var data = bytes(3 * THRESHOLD + 5);
+        var file = staging.stage(CHAT, new ByteArrayInputStream(data), false);
+
+        assertTrue(file.isOnDisk());
+        assertEquals(data.length, staging.getGlobalUsed());
+        try (var in = file.openStream()) {
+            assertArrayEquals(data, in.readAllBytes());
+        }
+        file.close();
+        assertFalse(Files.exists(file.path()));
+        assertEquals(0, staging.getGlobalUsed());
+    }
+
+    @Test
+    void exhaustedPoolSpillsToDisk() throws IOException {
+        var first = staging.stage(CHAT, new ByteArrayInputStream(bytes(10)), false);
+        var second = staging.stage(CHAT, new ByteArrayInputStream(bytes(10)), false);
+        var third = staging.stage(CHAT, new ByteArrayInputStream(bytes(10)), false);
+
+        assertFalse(first.isOnDisk());
+        assertFalse(second.isOnDisk());
+        assertTrue(third.isOnDisk());
+        assertEquals(2L * THRESHOLD + 10, staging.getGlobalUsed());
+
+        // Освобожденный буфер возвращается в пул и переиспользуется
+        first.close();
+        var fourth = staging.stage(CHAT, new ByteArrayInputStream(bytes(10)), false);
+        assertFalse(fourth.isOnDisk());
+    }
+
+    @Test
+    void quotaExceededRollsBackReservation() throws IOException {
+        var kept = new ArrayList<StagedFile>();
+        kept.add(staging.stage(CHAT, new ByteArrayInputStream(bytes(9 * THRESHOLD)), true));
+
+        assertThrows(FileStagingService.QuotaExceededException.class,
+                () -> staging.stage(CHAT, new ByteArrayInputStream(bytes(2 * THRESHOLD)), true));
+        assertEquals(9L * THRESHOLD, staging.getGlobalUsed());
+        try (var dirFiles = Files.list(dir)) {
+            assertEquals(1, dirFiles.count());
+        }
+        kept.forEach(StagedFile::close);
+    }
+
+    @Test
+    void sessionCloseReleasesChatFiles() throws IOException {
+        var file = staging.stage(CHAT, new ByteArrayInputStream(bytes(2 * THRESHOLD)), false);
+        staging.stage(CHAT, new ByteArrayInputStream(bytes(10)), false);
+
+        staging.onSessionClosed(new SessionClosedEvent(CHAT));
+
+        assertEquals(0, staging.getGlobalUsed());
+        assertFalse(Files.exists(file.path()));
+    }
+
+    @Test
+    void sessionCloseWaitsForOpenStream() throws IOException {
+        var data = bytes(10);
+        var file = staging.stage(CHAT, new ByteArrayInputStream(data), false);
+        var in = file.openStream();
+
+        staging.onSessionClosed(new SessionClosedEvent(CHAT));
+
+        // Буфер не возвращен в пул: новая загрузка не перезапишет читаемые данные
+        assertEquals(THRESHOLD, staging.getGlobalUsed());
+        try (var other = staging.stage(CHAT, new ByteArrayInputStream(new byte[THRESHOLD - 1]), false)) {
+            assertArrayEquals(data, in.readAllBytes());
+        }
+        in.close();
+        assertEquals(0, staging.getGlobalUsed());
+        assertThrows(IOException.class, file::openStream);
+    }
+
+    private static byte[] bytes(int size) {
+        var data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) i;
+        }
+        return data;
+    }
+}
@@ -0,0 +1,131 @@
+package ustin.fts.service.processing;
+
+import org.junit.jupiter.api.Test;
+import ustin.fts.xlsx.model.XlsxRow;
+import ustin.fts.xml.model.DTData;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JoinEngineTest {
+
+    private final RecordingSink sink = new RecordingSink();
+
+    @Test
+    void matchesByNumberAndDate() {
+        var first = dt("CERT-1", "2024-03-01");
+        var second = dt("CERT-2", "2024-03-02");
+        var engine = new JoinEngine("Номер документа", "Дата документа", true);
+
+        var result = engine.join(List.of(first, second), Stream.of(
+                row(0, "Номер документа", "Дата документа"),
+                row(1, "CERT-2", "2024-03-02"),
+                row(2, "CERT-1", "01.03.2024"),
+                row(3, "CERT-1", "2024-03-05")), sink);
+
+        assertEquals(3, result.rows());
+        assertEquals(2, result.matchedRows());
+        assertEquals(List.of(4), result.unmatchedRowNumbers());
+        assertTrue(result.unmatchedDeclarations().isEmpty());
+        assertEquals(List.of(List.of(second), List.of(first), List.of()), sink.matches);
+        assertEquals("Номер документа", sink.header.cell(0));
+    }
+
+    @Test
+    void normalizesNumberSpacesAndCase() {
+        var declaration = dt("ЕАЭС RU С-CN.АБ12.В.10001", "2024-03-01");
+        var engine = new JoinEngine("A", "B", false);
+
+        var result = engine.join(List.of(declaration), Stream.of(
+                row(0, "  еаэс  ru с-cn.аб12.в.10001 ", "2024-03-01")), sink);
+
+        assertEquals(1, result.matchedRows());
+    }
+
+    @Test
+    void declarationWithoutDateMatchesByNumberOnly() {
+        var declaration = dt("CERT-1", "");
+        var engine = new JoinEngine("A", "B", false);
+
+        var result = engine.join(List.of(declaration), Stream.of(row(0, "CERT-1", "2024-03-01")), sink);
+
+        assertEquals(1, result.matchedRows());
+        assertSame(declaration, sink.matches.get(0).get(0));
+    }
+
+    @Test
+    void collectsAllDeclarationsForOneRowAndReportsUnmatched() {
+        var first = dt("CERT-1", "2024-03-01");
+        var second = dt("CERT-1", "2024-03-01");
+        var orphan = dt("CERT-9", "2024-03-09");
+        var engine = new JoinEngine("A", "B", false);
+
+        var result = engine.join(List.of(first, second, orphan), Stream.of(row(0, "CERT-1", "2024-03-01")), sink);
+
+        assertEquals(List.of(first, second), sink.matches.get(0));
+        assertEquals(List.of(orphan), result.unmatchedDeclarations());
+    }
+
+    @Test
+    void headerNameWinsOverColumnLetters() {
+        var declaration = dt("CERT-1", "2024-03-01");
+        // "ID" и "Nr" похожи на буквы колонок, но это заголовки
+        var engine = new JoinEngine("Nr", "ID", true);
+
+        var result = engine.join(List.of(declaration), Stream.of(
+                row(0, "Товар", "ID", "Nr"),
+                row(1, "Станок", "2024-03-01", "CERT-1")), sink);
+
+        assertEquals(1, result.matchedRows());
+    }
+
+    @Test
+    void fallsBackToColumnLetterWhenHeaderHasNoSuchName() {
+        var declaration = dt("CERT-1", "2024-03-01");
+        var engine = new JoinEngine("c", "Дата", true);
+
+        var result = engine.join(List.of(declaration), Stream.of(
+                row(0, "Товар", "Дата", "Номер"),
+                row(1, "Станок", "2024-03-01", "CERT-1")), sink);
+
+        assertEquals(1, result.matchedRows());
+    }
+
+    @Test
+    void unknownColumnIsReported() {
+        var engine = new JoinEngine("Номер документа", "Дата", true);
+
+        var e = assertThrows(IllegalStateException.class, () -> engine.join(List.of(), Stream.of(
+                row(0, "Номер", "Дата")), sink));
+        assertTrue(e.getMessage().contains("Номер документа"));
+    }
+
+    private static DTData dt(String number, String date) {
+        return new DTData("CN", "10", "2024-04-01", number, date);
+    }
+
+    private static XlsxRow row(int rowNum, String... cells) {
+        return new XlsxRow(rowNum, cells);
+    }
+
+    private static final class RecordingSink implements JoinEngine.Sink {
+        XlsxRow header;
+        final List<List<DTData>> matches = new ArrayList<>();
+
+        @Override
+        public void header(XlsxRow header) {
+            this.header = header;
+        }
+
+        @Override
+        public void row(XlsxRow row, List<DTData> matches) {
+            this.matches.add(matches);
+        }
+    }
+}
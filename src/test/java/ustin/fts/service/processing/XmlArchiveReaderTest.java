@@ -0,0 +1,257 @@
+package ustin.fts.service.processing;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ustin.fts.xml.model.DTData;
+import ustin.fts.xml.service.XmlService;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class XmlArchiveReaderTest {
+
+    private static final long CHAT = 42;
+
+    @TempDir
+    Path dir;
+
+    private XmlParseStage parseStage;
+
+    @AfterEach
+    void shutdown() {
+        if (parseStage != null) {
+            parseStage.shutdown();
+        }
+    }
+
+    @Test
+    void parsesXmlEntriesInOrderAndSkipsOthers() throws IOException {
+        var staging = staging(1024, 1 << 20);
+        var reader = reader(staging, 10, 1 << 20, 1 << 20);
+
+        var results = reader.parseArchive(CHAT, "a.zip", ArchiveType.ZIP, zip(entries(
+                "1.xml", "first",
+                "readme.txt", "not xml",
+                "__MACOSX/._1.xml", "resource fork",
+                "dir/2.XML", "second")));
+
+        assertEquals(List.of("a.zip: 1.xml", "a.zip: dir/2.XML"), results.stream().map(ParseResult::source).toList());
+        assertEquals("first", results.get(0).data().getDecisionCode());
+        assertEquals("second", results.get(1).data().getDecisionCode());
+        assertEquals(0, staging.getGlobalUsed());
+    }
+
+    @Test
+    void tarGzArchive() throws IOException {
+        var reader = reader(staging(1024, 1 << 20), 10, 1 << 20, 1 << 20);
+
+        var results = reader.parseArchive(CHAT, "a.tar.gz", ArchiveType.TAR_GZ, tarGz(entries(
+                "1.xml", "first",
+                "2.xml", "second")));
+
+        assertEquals(2, results.size());
+        assertEquals("second", results.get(1).data().getDecisionCode());
+    }
+
+    @Test
+    void parserErrorWithoutMessageIsFailure() throws IOException {
+        var reader = reader(staging(1024, 1 << 20), 10, 1 << 20, 1 << 20);
+
+        var results = reader.parseArchive(CHAT, "a.zip", ArchiveType.ZIP, zip(entries("1.xml", "npe")));
+
+        assertFalse(results.get(0).isOk());
+        assertEquals("NullPointerException", results.get(0).error());
+    }
+
+    @Test
+    void cancelledEntryIsNotParsed() throws IOException {
+        var staging = staging(1024, 1 << 20);
+        var reader = reader(staging, 10, 1 << 20, 1 << 20);
+        // Отмена приходит сразу после того, как первый элемент поставлен в разбор
+        var checks = new AtomicInteger();
+
+        var results = reader.parseArchive(CHAT, "a.zip", ArchiveType.ZIP, zip(entries(
+                "1.xml", "first", "2.xml", "second")), () -> checks.incrementAndGet() > 1);
+
+        assertEquals(2, results.size());
+        assertFalse(results.get(0).isOk());
+        assertEquals("обработка отменена", results.get(0).error());
+        assertEquals("a.zip", results.get(1).source());
+        assertEquals(0, staging.getGlobalUsed());
+    }
+
+    @Test
+    void stopsAfterMaxEntries() throws IOException {
+        var reader = reader(staging(1024, 1 << 20), 2, 1 << 20, 1 << 20);
+
+        var results = reader.parseArchive(CHAT, "a.zip", ArchiveType.ZIP, zip(entries(
+                "1.xml", "a", "2.xml", "b", "3.xml", "c")));
+
+        assertEquals(3, results.size());
+        assertTrue(results.get(0).isOk() && results.get(1).isOk());
+        assertFalse(results.get(2).isOk());
+        assertTrue(results.get(2).error().contains("больше 2"));
+    }
+
+    @Test
+    void entryOverSizeLimitStopsArchive() throws IOException {
+        var staging = staging(64, 1 << 20);
+        var reader = reader(staging, 10, 100, 1 << 20);
+
+        var results = reader.parseArchive(CHAT, "a.zip", ArchiveType.ZIP, zip(entries(
+                "1.xml", "x".repeat(100),
+                "2.xml", "x".repeat(101),
+                "3.xml", "x")));
+
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).isOk());
+        assertEquals("a.zip: 2.xml", results.get(1).source());
+        assertTrue(results.get(1).error().contains("лимит размера"));
+        assertEquals(0, staging.getGlobalUsed());
+    }
+
+    @Test
+    void totalSizeLimitStopsArchive() throws IOException {
+        var reader = reader(staging(1024, 1 << 20), 10, 1 << 20, 250);
+
+        var results = reader.parseArchive(CHAT, "a.zip", ArchiveType.ZIP, zip(entries(
+                "1.xml", "x".repeat(100),
+                "2.xml", "x".repeat(100),
+                "3.xml", "x".repeat(100))));
+
+        assertEquals(3, results.size());
+        assertFalse(results.get(2).isOk());
+        assertTrue(results.get(2).error().contains("лимит размера"));
+    }
+
+    @Test
+    void largeEntriesAreStagedOnDiskAndReleased() throws IOException {
+        var staging = staging(64, 1 << 20);
+        var reader = reader(staging, 10, 1 << 20, 1 << 20);
+        var large = "y".repeat(10_000);
+
+        var results = reader.parseArchive(CHAT, "a.zip", ArchiveType.ZIP, zip(entries("1.xml", large)));
+
+        assertEquals(large, results.get(0).data().getDecisionCode());
+        assertEquals(0, staging.getGlobalUsed());
+    }
+
+    @Test
+    void chatQuotaStopsArchive() throws IOException {
+        var staging = staging(64, 150);
+        var reader = reader(staging, 10, 1 << 20, 1 << 20);
+
+        var results = reader.parseArchive(CHAT, "a.zip", ArchiveType.ZIP, zip(entries(
+                "1.xml", "x".repeat(100),
+                "2.xml", "x".repeat(200),
+                "3.xml", "x".repeat(100))));
+
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).isOk());
+        assertTrue(results.get(1).error().contains("лимит объема"));
+        assertEquals(0, staging.getGlobalUsed());
+    }
+
+    @Test
+    void truncatedArchiveIsReported() throws IOException {
+        var staging = staging(1024, 1 << 20);
+        var reader = reader(staging, 10, 1 << 20, 1 << 20);
+        var bytes = zip(entries("1.xml", "x".repeat(10_000))).readAllBytes();
+
+        var results = reader.parseArchive(CHAT, "a.zip", ArchiveType.ZIP,
+                new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length / 2)));
+
+        var last = results.get(results.size() - 1);
+        assertFalse(last.isOk());
+        assertTrue(last.error().contains("архив поврежден"));
+        assertEquals(0, staging.getGlobalUsed());
+    }
+
+    private FileStagingService staging(int memoryThreshold, long chatBudget) throws IOException {
+        var staging = new FileStagingService(memoryThreshold, 4, chatBudget, 1 << 30, dir.resolve("staging"));
+        staging.init();
+        return staging;
+    }
+
+    private XmlArchiveReader reader(FileStagingService staging, int maxEntries, long maxEntryBytes, long maxTotalBytes) {
+        parseStage = new XmlParseStage(new EchoXmlService(), 1);
+        return new XmlArchiveReader(parseStage, staging, maxEntries, maxEntryBytes, maxTotalBytes);
+    }
+
+    private static Map<String, String> entries(String... nameAndContent) {
+        Map<String, String> entries = new LinkedHashMap<>();
+        for (int i = 0; i < nameAndContent.length; i += 2) {
+            entries.put(nameAndContent[i], nameAndContent[i + 1]);
+        }
+        return entries;
+    }
+
+    private static InputStream zip(Map<String, String> entries) throws IOException {
+        var out = new ByteArrayOutputStream();
+        try (var zip = new ZipOutputStream(out)) {
+            for (var entry : entries.entrySet()) {
+                zip.putNextEntry(new ZipEntry(entry.getKey()));
+                zip.write(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    private static InputStream tarGz(Map<String, String> entries) throws IOException {
+        var out = new ByteArrayOutputStream();
+        try (var tar = new TarArchiveOutputStream(new GZIPOutputStream(out))) {
+            for (var entry : entries.entrySet()) {
+                var data = entry.getValue().getBytes(StandardCharsets.UTF_8);
+                var header = new TarArchiveEntry(entry.getKey());
+                header.setSize(data.length);
+                tar.putArchiveEntry(header);
+                tar.write(data);
+                tar.closeArchiveEntry();
+            }
+        }
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    /**
+     * Содержимое XML целиком попадает в код решения - так видно, что элемент прочитан полностью
+     */
+    private static final class EchoXmlService implements XmlService {
+        @Override
+        public DTData parseXml(byte[] xmlData) {
+            if (new String(xmlData, StandardCharsets.UTF_8).equals("npe")) {
+                throw new NullPointerException();
+            }
+            return new DTData("", new String(xmlData, StandardCharsets.UTF_8), "", "", "");
+        }
+
+        @Override
+        public DTData parseXml(InputStream in) {
+            try {
+                return parseXml(in.readAllBytes());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
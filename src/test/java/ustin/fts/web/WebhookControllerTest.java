@@ -0,0 +1,135 @@
+package ustin.fts.web;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import ustin.fts.service.UpdateDeduplicator;
+import ustin.fts.service.UpdateDispatcher;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class WebhookControllerTest {
+
+    private static final String PATH = "/telegram/webhook";
+    private static final String SECRET = "s3cret";
+    private static final int MAX_BODY = 512;
+
+    @TempDir
+    Path dir;
+
+    private UpdateDispatcher dispatcher;
+    private MockMvc mvc;
+
+    @BeforeEach
+    void setUp() {
+        // Рабочие потоки не запускаются: принятые обновления остаются в очереди
+        var deduplicator = new UpdateDeduplicator(1024, dir.resolve("update-offset"), 30_000, 24);
+        dispatcher = new UpdateDispatcher(update -> { }, deduplicator, 1, 2);
+        mvc = MockMvcBuilders.standaloneSetup(new WebhookController(dispatcher, SECRET, MAX_BODY))
+                .addPlaceholderValue("telegram.bot.webhook.path", PATH)
+                .build();
+    }
+
+    @Test
+    void validSecretDispatchesUpdate() throws Exception {
+        deliver(1).andExpect(status().isOk());
+
+        assertEquals(1, dispatcher.getTotalQueueDepth());
+    }
+
+    @Test
+    void wrongSecretIsForbidden() throws Exception {
+        mvc.perform(post(PATH)
+                        .header(WebhookController.SECRET_HEADER, "guess")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(update(1)))
+                .andExpect(status().isForbidden());
+
+        assertEquals(0, dispatcher.getTotalQueueDepth());
+    }
+
+    @Test
+    void missingSecretIsForbidden() throws Exception {
+        mvc.perform(post(PATH)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(update(1)))
+                .andExpect(status().isForbidden());
+
+        assertEquals(0, dispatcher.getTotalQueueDepth());
+    }
+
+    @Test
+    void oversizedBodyIsRejected() throws Exception {
+        var body = "{\"update_id\":1,\"padding\":\"" + "x".repeat(MAX_BODY) + "\"}";
+
+        mvc.perform(post(PATH)
+                        .header(WebhookController.SECRET_HEADER, SECRET)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(body))
+                .andExpect(status().isPayloadTooLarge());
+
+        assertEquals(0, dispatcher.getTotalQueueDepth());
+    }
+
+    @Test
+    void malformedBodyIsBadRequest() throws Exception {
+        mvc.perform(post(PATH)
+                        .header(WebhookController.SECRET_HEADER, SECRET)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"update_id\":"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void redeliveredUpdateIsHandledOnce() throws Exception {
+        // Telegram повторяет доставку, если не дождался ответа: повтор подтверждается, но в очередь не попадает
+        for (int i = 0; i < 2; i++) {
+            deliver(7).andExpect(status().isOk());
+        }
+
+        assertEquals(1, dispatcher.getTotalQueueDepth());
+    }
+
+    @Test
+    void updateRejectedOnFullQueueIsAcceptedOnRedelivery() throws Exception {
+        deliver(1).andExpect(status().isOk());
+        deliver(2).andExpect(status().isOk());
+        deliver(3).andExpect(status().isServiceUnavailable());
+
+        dispatcher.start();
+        try {
+            // Очередь разобрана - повтор того же обновления принимается
+            var deadline = System.nanoTime() + 5_000_000_000L;
+            while (dispatcher.getTotalQueueDepth() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            deliver(3).andExpect(status().isOk());
+        } finally {
+            dispatcher.stop();
+        }
+    }
+
+    private ResultActions deliver(long updateId) throws Exception {
+        return mvc.perform(post(PATH)
+                .header(WebhookController.SECRET_HEADER, SECRET)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(update(updateId)));
+    }
+
+    private static String update(long updateId) {
+        return """
+                {"update_id": %d,
+                 "message": {"message_id": 10, "date": 1700000000,
+                             "chat": {"id": 42, "type": "private"},
+                             "text": "/start"}}
+                """.formatted(updateId);
+    }
+}
@@ -0,0 +1,53 @@
+package ustin.fts.xml.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class StringInternerTest {
+
+    @Test
+    void returnsCanonicalInstance() {
+        var interner = new StringInterner(10);
+        var first = interner.intern(new String("CN"));
+
+        assertSame(first, interner.intern(new String("CN")));
+        assertEquals("", interner.intern(null));
+        assertEquals(1, interner.size());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        var interner = new StringInterner(2);
+        var cn = interner.intern(new String("CN"));
+        interner.intern(new String("DE"));
+        interner.intern("CN");                  // DE становится самым старым
+        interner.intern(new String("TR"));
+
+        assertEquals(2, interner.size());
+        assertSame(cn, interner.intern(new String("CN")));
+        var de = new String("DE");
+        assertSame(de, interner.intern(de));    // DE вытеснен и попадает в пул заново
+    }
+
+    @Test
+    void sizeNeverExceedsCapacity() {
+        var interner = new StringInterner(1000);
+        for (int i = 0; i < 100_000; i++) {
+            interner.intern("number-" + i);
+        }
+        assertEquals(1000, interner.size());
+    }
+
+    @Test
+    void zeroCapacityDisablesPool() {
+        var interner = new StringInterner(0);
+        var value = new String("CN");
+
+        assertSame(value, interner.intern(value));
+        assertNotSame(value, interner.intern(new String("CN")));
+        assertEquals(0, interner.size());
+    }
+}
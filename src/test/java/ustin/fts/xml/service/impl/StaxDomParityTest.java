@@ -0,0 +1,226 @@
+package ustin.fts.xml.service.impl;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ustin.fts.xml.model.DTData;
+import ustin.fts.xml.model.DTProperty;
+import ustin.fts.xml.model.GoodsColumn;
+import ustin.fts.xml.model.Interners;
+import ustin.fts.xml.model.StringInterner;
+import ustin.fts.xml.plan.ExtractionPlan;
+import ustin.fts.xml.plan.FieldSpec;
+import ustin.fts.xml.plan.GoodsSpec;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Потоковый разбор должен давать те же значения, что и DOM + XPath ({@link DomDtReference})
+ */
+class StaxDomParityTest {
+
+    private static final String NS =
+            " xmlns=\"urn:customs.ru:Information:CustomsDocuments:ESADout_CU:5.17.0\""
+            + " xmlns:cat_ru=\"urn:customs.ru:CommonAggregateTypes:5.10.0\""
+            + " xmlns:catESAD_cu=\"urn:customs.ru:CUESADCommonAggregateTypesCust:5.17.0\""
+            + " xmlns:catESAD_ru=\"urn:customs.ru:RUESADCommonAggregateTypesCust:5.17.0\"";
+
+    private static final String GOODS = """
+                <ESADout_CUGoods>
+                  <catESAD_cu:GoodsNumeric>1</catESAD_cu:GoodsNumeric>
+                  <catESAD_cu:OriginCountryCode>CN</catESAD_cu:OriginCountryCode>
+                  <ESADout_CUPresentedDocument>
+                    <cat_ru:PrDocumentNumber>ЕАЭС RU С-CN.АБ12.В.10001</cat_ru:PrDocumentNumber>
+                    <cat_ru:PrDocumentDate>2024-03-02</cat_ru:PrDocumentDate>
+                  </ESADout_CUPresentedDocument>
+                </ESADout_CUGoods>
+                <ESADout_CUGoods>
+                  <catESAD_cu:GoodsNumeric>2</catESAD_cu:GoodsNumeric>
+                  <catESAD_cu:OriginCountryCode>DE</catESAD_cu:OriginCountryCode>
+                </ESADout_CUGoods>
+            """;
+
+    private static final String DECISION = """
+                <ESADout_CUCustomsProcedure>
+                  <catESAD_ru:DecisionCode>10</catESAD_ru:DecisionCode>
+                  <catESAD_ru:DateInf>2024-04-01+03:00</catESAD_ru:DateInf>
+                </ESADout_CUCustomsProcedure>
+            """;
+
+    private final Interners interners = new Interners(new StringInterner(100), new StringInterner(100));
+    private final StaxDtExtractor fieldsOnly = new StaxDtExtractor(ExtractionPlan.compile(fields()), interners);
+    private final StaxDtExtractor withGoods = new StaxDtExtractor(ExtractionPlan.compile(fields(), goods()), interners);
+
+    @Test
+    void namespacedDocument() throws Exception {
+        var xml = "<ESADout_CU" + NS + ">\n" + GOODS + DECISION + "</ESADout_CU>";
+
+        var data = assertParity(xml);
+        assertEquals("CN", data.getOriginCountryCode());
+        assertEquals("10", data.getDecisionCode());
+        assertEquals(LocalDate.of(2024, 4, 1), data.getDecisionDate());
+        assertEquals("ЕАЭС RU С-CN.АБ12.В.10001", data.getPrDocumentNumber());
+        assertEquals(LocalDate.of(2024, 3, 2), data.getPrDocumentDate());
+    }
+
+    @Test
+    void namespacesNotOnRootFallBackToLocalName() throws Exception {
+        var xml = "<ESADout_CU>\n"
+                  + "  <cat_ru:DocumentID xmlns:cat_ru=\"urn:other\">id</cat_ru:DocumentID>\n"
+                  + "  <ESADout_CUGoodsShipment" + NS + ">\n" + GOODS + DECISION + "  </ESADout_CUGoodsShipment>\n"
+                  + "</ESADout_CU>";
+
+        var data = assertParity(xml);
+        assertEquals("CN", data.getOriginCountryCode());
+        assertEquals("10", data.getDecisionCode());
+    }
+
+    @Test
+    void primaryNamespaceWinsOverEarlierElementInOtherNamespace() throws Exception {
+        var xml = "<ESADout_CU" + NS + ">\n"
+                  + "  <x:OriginCountryCode xmlns:x=\"urn:other\">XX</x:OriginCountryCode>\n"
+                  + GOODS + DECISION + "</ESADout_CU>";
+
+        assertEquals("CN", assertParity(xml).getOriginCountryCode());
+    }
+
+    @Test
+    void emptyPrimaryElementFallsBackToFirstByLocalName() throws Exception {
+        var xml = "<ESADout_CU" + NS + ">\n"
+                  + "  <x:DecisionCode xmlns:x=\"urn:other\">40</x:DecisionCode>\n"
+                  + "  <catESAD_ru:DecisionCode>  </catESAD_ru:DecisionCode>\n"
+                  + GOODS + "</ESADout_CU>";
+
+        assertEquals("40", assertParity(xml).getDecisionCode());
+    }
+
+    @Test
+    void missingFieldsAreEmpty() throws Exception {
+        var xml = "<ESADout_CU" + NS + ">\n" + GOODS + "</ESADout_CU>";
+
+        var data = assertParity(xml);
+        assertEquals("", data.getDecisionCode());
+        assertEquals(null, data.getDecisionDate());
+    }
+
+    @Test
+    void nestedTextCdataAndRussianDateFormat() throws Exception {
+        var xml = "<ESADout_CU" + NS + ">\n"
+                  + "  <catESAD_cu:OriginCountryCode> <![CDATA[T]]>R </catESAD_cu:OriginCountryCode>\n"
+                  + "  <cat_ru:PrDocumentNumber>A<b>-1</b></cat_ru:PrDocumentNumber>\n"
+                  + "  <cat_ru:PrDocumentDate>01.03.2024</cat_ru:PrDocumentDate>\n"
+                  + DECISION + "</ESADout_CU>";
+
+        var data = assertParity(xml);
+        assertEquals("TR", data.getOriginCountryCode());
+        assertEquals("A-1", data.getPrDocumentNumber());
+        assertEquals(LocalDate.of(2024, 3, 1), data.getPrDocumentDate());
+    }
+
+    @Test
+    void unrecognizedDateKeepsSourceText() throws Exception {
+        var xml = "<ESADout_CU" + NS + ">\n"
+                  + "  <cat_ru:PrDocumentDate>б/д</cat_ru:PrDocumentDate>\n"
+                  + DECISION + "</ESADout_CU>";
+
+        var data = assertParity(xml);
+        assertEquals(null, data.getPrDocumentDate());
+        assertEquals("б/д", data.getPrDocumentDateText());
+        assertEquals("2024-04-01", data.getDecisionDateText());
+    }
+
+    @Test
+    void stopsReadingOnceAllFieldsAreResolved() throws Exception {
+        var head = "<ESADout_CU" + NS + ">\n" + DECISION + GOODS;
+        var wellFormed = head + "</ESADout_CU>";
+        assertParity(wellFormed);
+
+        // Хвост после последнего нужного поля не читается: битая разметка не мешает
+        var broken = head + "  <filler>" + "x".repeat(256 * 1024) + "</filler>\n  <broken attr=</ESADout_CU>";
+        var data = fieldsOnly.extract(stream(broken));
+        assertEquals("10", data.getDecisionCode());
+        assertEquals("ЕАЭС RU С-CN.АБ12.В.10001", data.getPrDocumentNumber());
+        assertThrows(RuntimeException.class, () -> DomDtReference.parse(bytes(broken)));
+    }
+
+    @Test
+    void goodsDisableEarlyStop() throws Exception {
+        var head = "<ESADout_CU" + NS + ">\n" + DECISION + GOODS;
+        var data = withGoods.extract(stream(head + "</ESADout_CU>"));
+        assertEquals(2, data.getGoods().size());
+        assertFields(DomDtReference.parse(bytes(head + "</ESADout_CU>")), data);
+
+        assertThrows(XMLStreamException.class, () -> withGoods.extract(stream(head + "  <broken attr=</ESADout_CU>")));
+    }
+
+    @Test
+    void externalEntitiesAreNotResolved(@TempDir Path dir) throws Exception {
+        var secret = Files.writeString(dir.resolve("secret.txt"), "SECRET");
+        var xml = "<?xml version=\"1.0\"?>\n"
+                  + "<!DOCTYPE ESADout_CU [<!ENTITY xxe SYSTEM \"" + secret.toUri() + "\">]>\n"
+                  + "<ESADout_CU" + NS + ">\n"
+                  + "  <catESAD_ru:DecisionCode>&xxe;</catESAD_ru:DecisionCode>\n"
+                  + "</ESADout_CU>";
+
+        try {
+            assertFalse(fieldsOnly.extract(stream(xml)).getDecisionCode().contains("SECRET"));
+        } catch (XMLStreamException expected) {
+            // Неразрешенная сущность - тоже допустимый исход
+        }
+    }
+
+    private DTData assertParity(String xml) throws XMLStreamException {
+        var expected = DomDtReference.parse(bytes(xml));
+        var actual = fieldsOnly.extract(stream(xml));
+        assertFields(expected, actual);
+        assertFields(expected, withGoods.extract(stream(xml)));
+        return actual;
+    }
+
+    private static void assertFields(DTData expected, DTData actual) {
+        assertEquals(expected.getOriginCountryCode(), actual.getOriginCountryCode());
+        assertEquals(expected.getDecisionCode(), actual.getDecisionCode());
+        assertEquals(expected.getDecisionDate(), actual.getDecisionDate());
+        assertEquals(expected.getPrDocumentNumber(), actual.getPrDocumentNumber());
+        assertEquals(expected.getPrDocumentDate(), actual.getPrDocumentDate());
+        assertEquals(expected.getDecisionDateText(), actual.getDecisionDateText());
+        assertEquals(expected.getPrDocumentDateText(), actual.getPrDocumentDateText());
+    }
+
+    private static List<FieldSpec> fields() {
+        return List.of(
+                field("originCountry", "catESAD_cu", "OriginCountryCode", DTProperty.ORIGIN_COUNTRY_CODE),
+                field("decisionCode", "catESAD_ru", "DecisionCode", DTProperty.DECISION_CODE),
+                field("decisionDate", "catESAD_ru", "DateInf", DTProperty.DECISION_DATE),
+                field("docNumber", "cat_ru", "PrDocumentNumber", DTProperty.PR_DOCUMENT_NUMBER),
+                field("docDate", "cat_ru", "PrDocumentDate", DTProperty.PR_DOCUMENT_DATE));
+    }
+
+    private static FieldSpec field(String name, String prefix, String localName, DTProperty property) {
+        return new FieldSpec(name, prefix, null, localName, List.of(localName), property);
+    }
+
+    private static GoodsSpec goods() {
+        return new GoodsSpec("ESADout_CUGoods", Map.of(
+                "GoodsNumeric", GoodsColumn.of("itemNumber"),
+                "OriginCountryCode", GoodsColumn.of("originCountryCode")));
+    }
+
+    private static ByteArrayInputStream stream(String xml) {
+        return new ByteArrayInputStream(bytes(xml));
+    }
+
+    private static byte[] bytes(String xml) {
+        return xml.getBytes(StandardCharsets.UTF_8);
+    }
+}